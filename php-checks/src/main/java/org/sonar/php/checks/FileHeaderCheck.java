@@ -19,27 +19,18 @@
  */
 package org.sonar.php.checks;
 
-import com.google.common.io.Files;
-import com.sonar.sslr.api.AstNode;
-import com.sonar.sslr.api.Grammar;
-import org.sonar.api.utils.SonarException;
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
 import org.sonar.check.RuleProperty;
-import org.sonar.php.api.CharsetAwareVisitor;
+import org.sonar.php.checks.utils.PhysicalLineCheck;
 import org.sonar.php.lexer.PHPTagsChannel;
-import org.sonar.squidbridge.checks.SquidCheck;
 
-import java.io.IOException;
-import java.nio.charset.Charset;
-import java.util.Iterator;
-import java.util.List;
 import java.util.regex.Pattern;
 
 @Rule(
   key = "S1451",
   priority = Priority.BLOCKER)
-public class FileHeaderCheck extends SquidCheck<Grammar> implements CharsetAwareVisitor {
+public class FileHeaderCheck extends PhysicalLineCheck {
 
   private static final String DEFAULT_HEADER_FORMAT = "";
   private static final Pattern PHP_OPEN_TAG = Pattern.compile(PHPTagsChannel.OPENING);
@@ -50,56 +41,55 @@ public class FileHeaderCheck extends SquidCheck<Grammar> implements CharsetAware
     defaultValue = DEFAULT_HEADER_FORMAT)
   public String headerFormat = DEFAULT_HEADER_FORMAT;
 
-  private Charset charset;
   private String[] expectedLines;
+  private int matchedLines;
+  private boolean mismatch;
 
   @Override
-  public void setCharset(Charset charset) {
-    this.charset = charset;
+  public void init() {
+    expectedLines = headerFormat.split("(?:\r)?\n|\r");
   }
 
   @Override
-  public void init() {
-    expectedLines = headerFormat.split("(?:\r)?\n|\r");
+  public void visitContents(CharSequence contents) {
+    super.visitContents(contents);
+    matchedLines = 0;
+    mismatch = false;
   }
 
   @Override
-  public void visitFile(AstNode astNode) {
-    List<String> lines;
-    try {
-      lines = Files.readLines(getContext().getFile(), charset);
-    } catch (IOException e) {
-      throw new SonarException(e);
+  public void visitLine(int line, int start, int end) {
+    if (mismatch || matchedLines == expectedLines.length) {
+      return;
     }
-
-    if (!matches(expectedLines, lines)) {
-      getContext().createFileViolation(this, "Add or update the header of this file.");
+    if (line == 1 && PHP_OPEN_TAG.matcher(getContents()).region(start, end).matches()) {
+      return;
+    }
+    if (equals(start, end, expectedLines[matchedLines])) {
+      matchedLines++;
+    } else {
+      mismatch = true;
     }
   }
 
-  private static boolean matches(String[] expectedLines, List<String> lines) {
-    boolean result;
-
-    if (PHP_OPEN_TAG.matcher(lines.get(0)).matches()) {
-      lines.remove(0);
+  private boolean equals(int start, int end, String expectedLine) {
+    if (end - start != expectedLine.length()) {
+      return false;
     }
-
-    if (expectedLines.length <= lines.size()) {
-      result = true;
-
-      Iterator<String> it = lines.iterator();
-      for (int i = 0; i < expectedLines.length; i++) {
-        String line = it.next();
-        if (!line.equals(expectedLines[i])) {
-          result = false;
-          break;
-        }
+    CharSequence contents = getContents();
+    for (int i = 0; i < expectedLine.length(); i++) {
+      if (contents.charAt(start + i) != expectedLine.charAt(i)) {
+        return false;
       }
-    } else {
-      result = false;
     }
+    return true;
+  }
 
-    return result;
+  @Override
+  public void leaveContents() {
+    if (matchedLines < expectedLines.length) {
+      getContext().createFileViolation(this, "Add or update the header of this file.");
+    }
   }
 
 }
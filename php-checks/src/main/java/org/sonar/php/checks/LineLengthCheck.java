@@ -19,52 +19,28 @@
  */
 package org.sonar.php.checks;
 
-import com.google.common.io.Files;
-import com.sonar.sslr.api.AstNode;
-import com.sonar.sslr.api.Grammar;
-import org.sonar.api.utils.SonarException;
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
 import org.sonar.check.RuleProperty;
-import org.sonar.php.api.CharsetAwareVisitor;
-import org.sonar.squidbridge.checks.SquidCheck;
-
-import javax.annotation.Nullable;
-import java.io.IOException;
-import java.nio.charset.Charset;
-import java.util.List;
+import org.sonar.php.checks.utils.PhysicalLineCheck;
 
 @Rule(
   key = "S103",
   priority = Priority.MAJOR)
-public class LineLengthCheck extends SquidCheck<Grammar> implements CharsetAwareVisitor {
+public class LineLengthCheck extends PhysicalLineCheck {
 
   public static final int DEFAULT = 120;
-  private Charset charset;
 
   @RuleProperty(
     key = "maximumLineLength",
     defaultValue = "" + DEFAULT)
   public int maximumLineLength = DEFAULT;
 
-  public void setCharset(Charset charset) {
-    this.charset = charset;
-  }
-
   @Override
-  public void visitFile(@Nullable AstNode astNode) {
-    List<String> lines;
-
-    try {
-      lines = Files.readLines(getContext().getFile(), charset);
-    } catch (IOException e) {
-      throw new SonarException(e);
-    }
-    for (int i = 0; i < lines.size(); i++) {
-      String line = lines.get(i);
-      if (line.length() > maximumLineLength) {
-        getContext().createLineViolation(this, "Split this {0} characters long line (which is greater than {1} authorized).", i + 1, line.length(), maximumLineLength);
-      }
+  public void visitLine(int line, int start, int end) {
+    int length = end - start;
+    if (length > maximumLineLength) {
+      getContext().createLineViolation(this, "Split this {0} characters long line (which is greater than {1} authorized).", line, length, maximumLineLength);
     }
   }
 }
@@ -19,48 +19,28 @@
  */
 package org.sonar.php.checks;
 
-import com.google.common.io.Closeables;
-import com.sonar.sslr.api.AstNode;
-import com.sonar.sslr.api.Grammar;
-import org.sonar.api.utils.SonarException;
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
-import org.sonar.squidbridge.checks.SquidCheck;
-
-import java.io.IOException;
-import java.io.RandomAccessFile;
+import org.sonar.php.checks.utils.PhysicalLineCheck;
 
 @Rule(
   key = "S113",
   priority = Priority.MINOR)
-public class MissingNewLineAtEOFCheck extends SquidCheck<Grammar> {
+public class MissingNewLineAtEOFCheck extends PhysicalLineCheck {
 
   @Override
-  public void visitFile(AstNode astNode) {
-    RandomAccessFile randomAccessFile = null;
-    try {
-      randomAccessFile = new RandomAccessFile(getContext().getFile(), "r");
-      if (!endsWithNewline(randomAccessFile)) {
-        getContext().createFileViolation(this, "Add a new line at the end of this file.");
-      }
-    } catch (IOException e) {
-      throw new SonarException(e);
-    } finally {
-      Closeables.closeQuietly(randomAccessFile);
+  public void leaveContents() {
+    if (!endsWithNewline(getContents())) {
+      getContext().createFileViolation(this, "Add a new line at the end of this file.");
     }
   }
 
-  private boolean endsWithNewline(RandomAccessFile randomAccessFile) throws IOException {
-    if (randomAccessFile.length() < 1) {
-      return false;
-    }
-    randomAccessFile.seek(randomAccessFile.length() - 1);
-    byte[] chars = new byte[1];
-    if (randomAccessFile.read(chars) < 1) {
+  private static boolean endsWithNewline(CharSequence contents) {
+    if (contents.length() < 1) {
       return false;
     }
-    String ch = new String(chars);
-    return "\n".equals(ch) || "\r".equals(ch);
+    char c = contents.charAt(contents.length() - 1);
+    return c == '\n' || c == '\r';
   }
 
 }
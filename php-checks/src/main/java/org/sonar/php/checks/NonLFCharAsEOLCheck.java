@@ -19,48 +19,34 @@
  */
 package org.sonar.php.checks;
 
-import com.google.common.io.Files;
-import com.sonar.sslr.api.AstNode;
-import com.sonar.sslr.api.Grammar;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
-import org.sonar.php.api.CharsetAwareVisitor;
-import org.sonar.squidbridge.checks.SquidCheck;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.nio.charset.Charset;
+import org.sonar.php.checks.utils.PhysicalLineCheck;
 
 @Rule(
   key = "S1779",
   priority = Priority.MINOR)
-public class NonLFCharAsEOLCheck extends SquidCheck<Grammar> implements CharsetAwareVisitor {
+public class NonLFCharAsEOLCheck extends PhysicalLineCheck {
 
-  private static final Logger LOG = LoggerFactory.getLogger(NonLFCharAsEOLCheck.class);
-  private Charset charset;
+  private boolean found;
 
-  public void setCharset(Charset charset) {
-    this.charset = charset;
+  @Override
+  public void visitContents(CharSequence contents) {
+    super.visitContents(contents);
+    found = false;
   }
 
   @Override
-  public void visitFile(AstNode astNode) {
-    try {
-      BufferedReader reader = Files.newReader(getContext().getFile(), charset);
-
-      int c;
-      while ((c = reader.read()) != -1) {
-
-        if (c == '\r' || c == '\u2028' || c == '\u2029') {
-          getContext().createFileViolation(this, "Replace all non line feed end of line characters in this file \"{0}\" by LF.",
-            getContext().getFile().getName());
-          break;
-        }
-      }
-    } catch (IOException e) {
-      LOG.error("Unable to process check S1779 on file: {}", getContext().getFile().getName(), e);
+  public void visitLine(int line, int start, int end) {
+    if (found) {
+      return;
+    }
+    // Lines end with "\r", "\r\n" or "\n", and may contain the Unicode separators
+    boolean endsWithCarriageReturn = end < getContents().length() && getContents().charAt(end) == '\r';
+    if (endsWithCarriageReturn || contains(start, end, '\u2028') || contains(start, end, '\u2029')) {
+      getContext().createFileViolation(this, "Replace all non line feed end of line characters in this file \"{0}\" by LF.",
+        getContext().getFile().getName());
+      found = true;
     }
   }
 }
@@ -19,44 +19,30 @@
  */
 package org.sonar.php.checks;
 
-import com.google.common.io.Files;
-import com.sonar.sslr.api.AstNode;
-import com.sonar.sslr.api.Grammar;
-import org.sonar.api.utils.SonarException;
 import org.sonar.check.BelongsToProfile;
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
-import org.sonar.php.api.CharsetAwareVisitor;
-import org.sonar.squidbridge.checks.SquidCheck;
-
-import java.io.IOException;
-import java.nio.charset.Charset;
-import java.util.List;
+import org.sonar.php.checks.utils.PhysicalLineCheck;
 
 @Rule(
   key = "S105",
   priority = Priority.MINOR)
 @BelongsToProfile(title = CheckList.SONAR_WAY_PROFILE, priority = Priority.MINOR)
-public class TabCharacterCheck extends SquidCheck<Grammar> implements CharsetAwareVisitor {
-  private Charset charset;
+public class TabCharacterCheck extends PhysicalLineCheck {
+
+  private boolean found;
 
-  public void setCharset(Charset charset) {
-    this.charset = charset;
+  @Override
+  public void visitContents(CharSequence contents) {
+    super.visitContents(contents);
+    found = false;
   }
 
   @Override
-  public void visitFile(AstNode astNode) {
-    List<String> lines;
-    try {
-      lines = Files.readLines(getContext().getFile(), charset);
-    } catch (IOException e) {
-      throw new SonarException(e);
-    }
-    for (String line : lines) {
-      if (line.contains("\t")) {
-        getContext().createFileViolation(this, "Replace all tab characters in this file by sequences of white-spaces.");
-        break;
-      }
+  public void visitLine(int line, int start, int end) {
+    if (!found && contains(start, end, '\t')) {
+      getContext().createFileViolation(this, "Replace all tab characters in this file by sequences of white-spaces.");
+      found = true;
     }
   }
 
@@ -19,20 +19,17 @@
  */
 package org.sonar.php.checks;
 
-import com.sonar.sslr.api.AstNode;
-import com.sonar.sslr.api.GenericTokenType;
-import com.sonar.sslr.api.Grammar;
 import org.sonar.check.BelongsToProfile;
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
 import org.sonar.check.RuleProperty;
-import org.sonar.squidbridge.checks.SquidCheck;
+import org.sonar.php.checks.utils.PhysicalLineCheck;
 
 @Rule(
   key = "S104",
   priority = Priority.MAJOR)
 @BelongsToProfile(title = CheckList.SONAR_WAY_PROFILE, priority = Priority.MAJOR)
-public class TooManyLinesInFileCheck extends SquidCheck<Grammar> {
+public class TooManyLinesInFileCheck extends PhysicalLineCheck {
 
   private static final int DEFAULT = 1000;
 
@@ -41,15 +38,15 @@ public class TooManyLinesInFileCheck extends SquidCheck<Grammar> {
     defaultValue = "" + DEFAULT)
   public int max = DEFAULT;
 
+  private int lines;
+
   @Override
-  public void init() {
-    subscribeTo(GenericTokenType.EOF);
+  public void visitLine(int line, int start, int end) {
+    lines = line;
   }
 
   @Override
-  public void visitNode(AstNode astNode) {
-    int lines = astNode.getTokenLine();
-
+  public void leaveContents() {
     if (lines > max) {
       getContext().createFileViolation(this, "File \"{0}\" has {1} lines, which is greater than {2} authorized. Split it into smaller files.",
         getContext().getFile().getName(), lines, max);
@@ -19,46 +19,33 @@
  */
 package org.sonar.php.checks;
 
-import com.google.common.io.Files;
-import com.sonar.sslr.api.AstNode;
-import com.sonar.sslr.api.Grammar;
-import org.sonar.api.utils.SonarException;
 import org.sonar.check.Priority;
 import org.sonar.check.Rule;
-import org.sonar.php.api.CharsetAwareVisitor;
+import org.sonar.php.checks.utils.PhysicalLineCheck;
 import org.sonar.php.lexer.PHPLexer;
-import org.sonar.squidbridge.checks.SquidCheck;
 
-import java.io.IOException;
-import java.nio.charset.Charset;
-import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @Rule(
   key = "S1131",
   priority = Priority.MAJOR)
-public class TrailingWhitespaceCheck extends SquidCheck<Grammar> implements CharsetAwareVisitor {
+public class TrailingWhitespaceCheck extends PhysicalLineCheck {
 
-  private Charset charset;
   private static final Pattern WHITESPACE_PATTERN = Pattern.compile("[" + PHPLexer.WHITESPACE + "]");
 
-  public void setCharset(Charset charset) {
-    this.charset = charset;
+  private Matcher matcher;
+
+  @Override
+  public void visitContents(CharSequence contents) {
+    super.visitContents(contents);
+    matcher = WHITESPACE_PATTERN.matcher(contents);
   }
 
   @Override
-  public void visitFile(AstNode astNode) {
-    List<String> lines;
-    try {
-      lines = Files.readLines(getContext().getFile(), charset);
-    } catch (IOException e) {
-      throw new SonarException(e);
-    }
-    for (int i = 0; i < lines.size(); i++) {
-      String line = lines.get(i);
-      if (line.length() > 0 && WHITESPACE_PATTERN.matcher(line.subSequence(line.length() - 1, line.length())).matches()) {
-        getContext().createLineViolation(this, "Remove the useless trailing whitespaces at the end of this line.", i + 1);
-      }
+  public void visitLine(int line, int start, int end) {
+    if (end > start && matcher.region(end - 1, end).matches()) {
+      getContext().createLineViolation(this, "Remove the useless trailing whitespaces at the end of this line.", line);
     }
   }
 
@@ -22,7 +22,7 @@ package org.sonar.php.checks.utils;
 import com.sonar.sslr.api.Grammar;
 import com.sonar.sslr.api.Token;
 import com.sonar.sslr.api.Trivia;
-import org.apache.commons.lang.StringUtils;
+import org.sonar.php.lexer.PHPComments;
 import org.sonar.squidbridge.checks.SquidCheck;
 
 public class CommentContainsPatternChecker {
@@ -40,20 +40,21 @@ public class CommentContainsPatternChecker {
     for (Trivia trivia : token.getTrivia()) {
       String comment = trivia.getToken().getOriginalValue();
 
-      if (StringUtils.containsIgnoreCase(comment, pattern)) {
-        String[] lines = comment.split("\r\n?|\n");
+      if (indexOfIgnoreCase(comment, pattern) != -1) {
+        int line = trivia.getToken().getLine();
 
-        for (int i = 0; i < lines.length; i++) {
-          if (StringUtils.containsIgnoreCase(lines[i], pattern) && !isLetterAround(lines[i], pattern)) {
-            check.getContext().createLineViolation(check, message, trivia.getToken().getLine() + i);
+        for (CharSequence commentLine : PHPComments.lines(comment)) {
+          int start = indexOfIgnoreCase(commentLine, pattern);
+          if (start != -1 && !isLetterAround(commentLine, start, pattern)) {
+            check.getContext().createLineViolation(check, message, line);
           }
+          line++;
         }
       }
     }
   }
 
-  private boolean isLetterAround(String line, String pattern) {
-    int start = StringUtils.indexOfIgnoreCase(line, pattern);
+  private static boolean isLetterAround(CharSequence line, int start, String pattern) {
     int end = start + pattern.length();
 
     boolean pre = start > 0 ? Character.isLetter(line.charAt(start - 1)) : false;
@@ -62,4 +63,32 @@ public class CommentContainsPatternChecker {
     return pre || post;
   }
 
+  /**
+   * Same as {@link org.apache.commons.lang.StringUtils#indexOfIgnoreCase(String, String)}, on a {@link CharSequence}.
+   */
+  private static int indexOfIgnoreCase(CharSequence cs, String searched) {
+    int last = cs.length() - searched.length();
+    for (int i = 0; i <= last; i++) {
+      if (regionMatchesIgnoreCase(cs, i, searched)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean regionMatchesIgnoreCase(CharSequence cs, int offset, String searched) {
+    for (int i = 0; i < searched.length(); i++) {
+      char c1 = cs.charAt(offset + i);
+      char c2 = searched.charAt(i);
+      if (c1 != c2) {
+        char u1 = Character.toUpperCase(c1);
+        char u2 = Character.toUpperCase(c2);
+        if (u1 != u2 && Character.toLowerCase(u1) != Character.toLowerCase(u2)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
 }
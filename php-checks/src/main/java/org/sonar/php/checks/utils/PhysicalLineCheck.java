@@ -0,0 +1,65 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.checks.utils;
+
+import com.sonar.sslr.api.Grammar;
+import org.sonar.php.api.PhysicalLineVisitor;
+import org.sonar.squidbridge.checks.SquidCheck;
+
+/**
+ * Base of the checks on the physical lines of files, which get the contents of each file from the scanner instead of
+ * reading it again, and look at each line as a range of these contents.
+ */
+public abstract class PhysicalLineCheck extends SquidCheck<Grammar> implements PhysicalLineVisitor {
+
+  private CharSequence contents;
+
+  @Override
+  public void visitContents(CharSequence contents) {
+    this.contents = contents;
+  }
+
+  @Override
+  public void visitLine(int line, int start, int end) {
+    // Nothing to do by default
+  }
+
+  @Override
+  public void leaveContents() {
+    // Nothing to do by default
+  }
+
+  protected CharSequence getContents() {
+    return contents;
+  }
+
+  /**
+   * Returns whether the given range of the contents contains the given character.
+   */
+  protected boolean contains(int start, int end, char c) {
+    for (int i = start; i < end; i++) {
+      if (contents.charAt(i) == c) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sonar.sslr.api.AstAndTokenVisitor;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.AstNodeType;
+import com.sonar.sslr.api.AstVisitor;
+import com.sonar.sslr.api.Token;
+import org.sonar.php.api.PHPKeyword;
+import org.sonar.php.api.PHPPunctuator;
+import org.sonar.php.parser.PHPGrammar;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Same as {@link com.sonar.sslr.impl.ast.AstWalker}, with the same order of calls to the visitors, but walks the tree
+ * with a stack of its own rather than by recursion, so that deeply nested code does not overflow the thread stack.
+ * <p>
+ * The visitors subscribed to each type of node are computed once: they are found by the ordinal of the type for the
+ * rules, punctuators and keywords of PHP, which are most of the nodes, and only the visitors which visit tokens are
+ * called for each token.
+ */
+public class IterativeAstWalker {
+
+  private static final AstVisitor[] NO_VISITORS = new AstVisitor[0];
+
+  private final List<? extends AstVisitor> visitors;
+  private final AstVisitor[][] visitorsByRule = new AstVisitor[PHPGrammar.values().length][];
+  private final AstVisitor[][] visitorsByPunctuator = new AstVisitor[PHPPunctuator.values().length][];
+  private final AstVisitor[][] visitorsByKeyword = new AstVisitor[PHPKeyword.values().length][];
+  private final Map<AstNodeType, AstVisitor[]> visitorsByOtherType = Maps.newIdentityHashMap();
+  private final AstAndTokenVisitor[] tokenVisitors;
+
+  private AstNode[] nodes = new AstNode[64];
+  private int[] nextChildren = new int[64];
+  private Token lastVisitedToken;
+
+  /**
+   * Visitors must have subscribed to the types of nodes they visit.
+   */
+  public IterativeAstWalker(List<? extends AstVisitor> visitors) {
+    this.visitors = visitors;
+    Map<AstNodeType, List<AstVisitor>> lists = Maps.newIdentityHashMap();
+    List<AstAndTokenVisitor> tokenVisitorList = Lists.newArrayList();
+    for (AstVisitor visitor : visitors) {
+      for (AstNodeType type : visitor.getAstNodeTypesToVisit()) {
+        List<AstVisitor> list = lists.get(type);
+        if (list == null) {
+          list = Lists.newArrayList();
+          lists.put(type, list);
+        }
+        list.add(visitor);
+      }
+      if (visitor instanceof AstAndTokenVisitor) {
+        tokenVisitorList.add((AstAndTokenVisitor) visitor);
+      }
+    }
+    tokenVisitors = tokenVisitorList.toArray(new AstAndTokenVisitor[tokenVisitorList.size()]);
+
+    Arrays.fill(visitorsByRule, NO_VISITORS);
+    Arrays.fill(visitorsByPunctuator, NO_VISITORS);
+    Arrays.fill(visitorsByKeyword, NO_VISITORS);
+    for (Map.Entry<AstNodeType, List<AstVisitor>> entry : lists.entrySet()) {
+      AstNodeType type = entry.getKey();
+      AstVisitor[] typeVisitors = entry.getValue().toArray(new AstVisitor[entry.getValue().size()]);
+      if (type instanceof PHPGrammar) {
+        visitorsByRule[((PHPGrammar) type).ordinal()] = typeVisitors;
+      } else if (type instanceof PHPPunctuator) {
+        visitorsByPunctuator[((PHPPunctuator) type).ordinal()] = typeVisitors;
+      } else if (type instanceof PHPKeyword) {
+        visitorsByKeyword[((PHPKeyword) type).ordinal()] = typeVisitors;
+      } else {
+        visitorsByOtherType.put(type, typeVisitors);
+      }
+    }
+  }
+
+  public void walkAndVisit(AstNode ast) {
+    visitFile(ast);
+    walk(ast);
+    leaveFile(ast);
+  }
+
+  public void visitFile(@Nullable AstNode ast) {
+    for (AstVisitor visitor : visitors) {
+      visitor.visitFile(ast);
+    }
+  }
+
+  public void leaveFile(@Nullable AstNode ast) {
+    for (int i = visitors.size() - 1; i >= 0; i--) {
+      visitors.get(i).leaveFile(ast);
+    }
+  }
+
+  /**
+   * Visits the nodes and tokens of the tree, without calling {@link AstVisitor#visitFile(AstNode)} and
+   * {@link AstVisitor#leaveFile(AstNode)}.
+   */
+  public void walk(AstNode ast) {
+    lastVisitedToken = null;
+    int depth = 0;
+    enter(ast);
+    depth = push(ast, depth);
+    while (depth > 0) {
+      AstNode node = nodes[depth - 1];
+      List<AstNode> children = node.getChildren();
+      int nextChild = nextChildren[depth - 1];
+      if (nextChild < children.size()) {
+        nextChildren[depth - 1] = nextChild + 1;
+        AstNode child = children.get(nextChild);
+        enter(child);
+        depth = push(child, depth);
+      } else {
+        leave(node);
+        depth--;
+        nodes[depth] = null;
+      }
+    }
+  }
+
+  private int push(AstNode node, int depth) {
+    if (depth == nodes.length) {
+      AstNode[] newNodes = new AstNode[depth * 2];
+      System.arraycopy(nodes, 0, newNodes, 0, depth);
+      nodes = newNodes;
+      int[] newNextChildren = new int[depth * 2];
+      System.arraycopy(nextChildren, 0, newNextChildren, 0, depth);
+      nextChildren = newNextChildren;
+    }
+    nodes[depth] = node;
+    nextChildren[depth] = 0;
+    return depth + 1;
+  }
+
+  private void enter(AstNode node) {
+    for (AstVisitor visitor : nodeVisitors(node)) {
+      visitor.visitNode(node);
+    }
+    Token token = node.getToken();
+    if (token != null && token != lastVisitedToken) {
+      lastVisitedToken = token;
+      for (AstAndTokenVisitor visitor : tokenVisitors) {
+        visitor.visitToken(token);
+      }
+    }
+  }
+
+  private void leave(AstNode node) {
+    AstVisitor[] nodeVisitors = nodeVisitors(node);
+    for (int i = nodeVisitors.length - 1; i >= 0; i--) {
+      nodeVisitors[i].leaveNode(node);
+    }
+  }
+
+  private AstVisitor[] nodeVisitors(AstNode node) {
+    AstNodeType type = node.getType();
+    if (type instanceof PHPGrammar) {
+      return visitorsByRule[((PHPGrammar) type).ordinal()];
+    } else if (type instanceof PHPPunctuator) {
+      return visitorsByPunctuator[((PHPPunctuator) type).ordinal()];
+    } else if (type instanceof PHPKeyword) {
+      return visitorsByKeyword[((PHPKeyword) type).ordinal()];
+    }
+    AstVisitor[] nodeVisitors = visitorsByOtherType.get(type);
+    return nodeVisitors == null ? NO_VISITORS : nodeVisitors;
+  }
+
+}
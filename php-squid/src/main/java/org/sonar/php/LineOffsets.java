@@ -0,0 +1,81 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php;
+
+import java.util.Arrays;
+
+/**
+ * Offsets of the physical lines of a source, computed in one pass. Lines are terminated by "\r\n", "\r" or "\n", and
+ * the last line ends with the source, even if it is empty, so that there are as many lines as {@link org.sonar.php.api.PHPMetric#LINES}.
+ */
+public class LineOffsets {
+
+  private int[] starts = new int[64];
+  private int[] ends = new int[64];
+  private int count;
+
+  public LineOffsets(CharSequence source) {
+    int start = 0;
+    int length = source.length();
+    for (int i = 0; i < length; i++) {
+      char c = source.charAt(i);
+      if (c == '\n') {
+        add(start, i);
+        start = i + 1;
+      } else if (c == '\r') {
+        add(start, i);
+        if (i + 1 < length && source.charAt(i + 1) == '\n') {
+          i++;
+        }
+        start = i + 1;
+      }
+    }
+    add(start, length);
+  }
+
+  private void add(int start, int end) {
+    if (count == starts.length) {
+      starts = Arrays.copyOf(starts, count * 2);
+      ends = Arrays.copyOf(ends, count * 2);
+    }
+    starts[count] = start;
+    ends[count] = end;
+    count++;
+  }
+
+  public int getLineCount() {
+    return count;
+  }
+
+  /**
+   * Offset of the first character of the given line, numbered from 1.
+   */
+  public int getStart(int line) {
+    return starts[line - 1];
+  }
+
+  /**
+   * Offset after the last character of the given line, numbered from 1, excluding its terminator.
+   */
+  public int getEnd(int line) {
+    return ends[line - 1];
+  }
+
+}
@@ -20,17 +20,34 @@
 package org.sonar.php;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
 import com.sonar.sslr.api.AstNode;
 import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.RecognitionException;
 import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.Lexer;
+import com.sonar.sslr.impl.LexerException;
 import com.sonar.sslr.impl.Parser;
+import org.apache.commons.io.input.CharSequenceReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sonar.php.api.CharsetAwareVisitor;
 import org.sonar.php.api.PHPMetric;
+import org.sonar.php.api.PhysicalLineVisitor;
+import org.sonar.php.lexer.PHPComments;
+import org.sonar.php.lexer.PHPLexer;
+import org.sonar.php.lexer.PHPStreamingLexer;
 import org.sonar.php.lexer.PHPTagsChannel;
+import org.sonar.php.metrics.CommentLinesVisitor;
 import org.sonar.php.metrics.ComplexityVisitor;
+import org.sonar.php.metrics.TokenMetricsVisitor;
+import org.sonar.php.parser.CompactAst;
+import org.sonar.php.parser.ParseTimeoutException;
 import org.sonar.php.parser.PHPGrammar;
 import org.sonar.php.parser.PHPParser;
+import org.sonar.php.parser.TimeLimitedParser;
 import org.sonar.squidbridge.AstScanner;
+import org.sonar.squidbridge.AstScannerExceptionHandler;
 import org.sonar.squidbridge.CommentAnalyser;
 import org.sonar.squidbridge.SourceCodeBuilderCallback;
 import org.sonar.squidbridge.SourceCodeBuilderVisitor;
@@ -42,36 +59,239 @@ import org.sonar.squidbridge.api.SourceFile;
 import org.sonar.squidbridge.api.SourceFunction;
 import org.sonar.squidbridge.api.SourceProject;
 import org.sonar.squidbridge.indexer.QueryByType;
-import org.sonar.squidbridge.metrics.CommentsVisitor;
 import org.sonar.squidbridge.metrics.CounterVisitor;
 import org.sonar.squidbridge.metrics.LinesOfCodeVisitor;
 import org.sonar.squidbridge.metrics.LinesVisitor;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.io.IOException;
+import java.net.URI;
 import java.util.Collection;
+import java.util.List;
 
 public class PHPAstScanner {
 
+  private static final Logger LOG = LoggerFactory.getLogger(PHPAstScanner.class);
+
   private static class PHPCommentAnalyser extends CommentAnalyser {
     @Override
     public boolean isBlank(String line) {
-      for (int i = 0; i < line.length(); i++) {
-        if (Character.isLetterOrDigit(line.charAt(i))) {
-          return false;
+      return PHPComments.isBlank(line);
+    }
+
+    @Override
+    public String getContents(String comment) {
+      return PHPComments.contents(comment).toString();
+    }
+  }
+
+  /**
+   * Gives AstScanner the root of the tree of each file without its children, and keeps the whole tree for
+   * {@link WalkingVisitor}: AstScanner visits trees by recursion, which overflows the stack on deeply nested code.
+   * Files which take longer to parse than allowed are skipped: AstScanner gets an empty root for them, and the other
+   * visitors get no tree. Files are read from the source cache of the configuration, if any, and their contents are
+   * kept for the {@link PhysicalLineVisitor}s. They are lexed from the cached contents with the URI of the file, so
+   * that tokens and errors refer to the file. With {@link PHPConfiguration#getCompactAst()}, the tree which is kept
+   * is a {@link CompactAst}.
+   */
+  private static class TreeHoldingParser extends Parser<Grammar> {
+    private final Parser<Grammar> parser;
+    private final Lexer lexer;
+    private final PHPSourceCache sourceCache;
+    private final boolean compactAst;
+    private AstNode tree;
+    private CharSequence source;
+    private boolean skipped;
+
+    TreeHoldingParser(PHPConfiguration conf, Parser<Grammar> parser, PHPSourceCache sourceCache) {
+      super(parser.getGrammar());
+      setRootRule(parser.getGrammar().getRootRule());
+      this.parser = parser;
+      this.lexer = PHPLexer.create(conf);
+      this.sourceCache = sourceCache;
+      this.compactAst = conf.getCompactAst();
+    }
+
+    @Override
+    public AstNode parse(File file) {
+      tree = null;
+      skipped = false;
+      source = null;
+      try {
+        source = sourceCache.acquire(file);
+        tree = keep(parse(source, file.toURI()));
+      } catch (ParseTimeoutException e) {
+        return skip(file, e.getMessage());
+      } finally {
+        if (source != null) {
+          sourceCache.release(file);
         }
       }
+      return root(tree);
+    }
+
+    private AstNode skip(File file, String reason) {
+      LOG.warn("Skipping file " + file.getPath() + " (" + file.length() + " bytes), " + reason
+        + ": only its lines, lines of code and comment lines are measured");
+      skipped = true;
+      return new AstNode(PHPGrammar.COMPILATION_UNIT, PHPGrammar.COMPILATION_UNIT.toString(), null);
+    }
+
+    private AstNode parse(CharSequence source, URI uri) {
+      if (parser instanceof TimeLimitedParser) {
+        return ((TimeLimitedParser) parser).parse(source, uri);
+      }
+      List<Token> tokens;
+      try {
+        tokens = PHPLexer.lex(lexer, source, uri);
+      } catch (LexerException e) {
+        throw new RecognitionException(e);
+      }
+      return parser.parse(tokens);
+    }
 
-      return true;
+    @Override
+    public AstNode parse(String source) {
+      tree = null;
+      skipped = false;
+      this.source = source;
+      tree = keep(parser.parse(source));
+      return root(tree);
     }
 
     @Override
-    public String getContents(String comment) {
-      if (comment.startsWith("//")) {
-        return comment.substring(2);
-      } else if (comment.startsWith("#")) {
-        return comment.substring(1);
-      } else {
-        return comment.substring(2, comment.length() - 2);
+    public AstNode parse(List<Token> tokens) {
+      tree = null;
+      skipped = false;
+      source = null;
+      tree = keep(parser.parse(tokens));
+      return root(tree);
+    }
+
+    private AstNode keep(AstNode parsed) {
+      return compactAst ? CompactAst.create(parsed).getNode(0) : parsed;
+    }
+
+    private static AstNode root(AstNode tree) {
+      return new AstNode(tree.getType(), tree.getName(), tree.getToken());
+    }
+  }
+
+  /**
+   * The only visitor of AstScanner, which walks the trees kept by {@link TreeHoldingParser} for the other visitors,
+   * without recursion, then drives the {@link PhysicalLineVisitor}s over the lines of the source of each file. Skipped
+   * files are only measured from their tokens, which {@link PHPStreamingLexer} hands one at a time to a
+   * {@link TokenMetricsVisitor}, so that no token list is built for them. Exceptions raised while scanning a file are
+   * handed to the visitors which are {@link AstScannerExceptionHandler}s, as AstScanner would.
+   */
+  private static class WalkingVisitor extends SquidAstVisitor<Grammar> implements AstScannerExceptionHandler {
+    private final TreeHoldingParser parser;
+    private final List<SquidAstVisitor<Grammar>> visitors;
+    private final PhysicalLineVisitor[] lineVisitors;
+    private final PHPStreamingLexer streamingLexer;
+    private final boolean ignoreHeaderComments;
+    private IterativeAstWalker walker;
+    private TokenMetricsVisitor skippedFileMetrics;
+
+    WalkingVisitor(PHPConfiguration conf, TreeHoldingParser parser, List<SquidAstVisitor<Grammar>> visitors, List<PhysicalLineVisitor> lineVisitors) {
+      this.parser = parser;
+      this.visitors = visitors;
+      this.lineVisitors = lineVisitors.toArray(new PhysicalLineVisitor[lineVisitors.size()]);
+      this.streamingLexer = new PHPStreamingLexer(conf);
+      this.ignoreHeaderComments = conf.getIgnoreHeaderComments();
+    }
+
+    @Override
+    public void init() {
+      for (SquidAstVisitor<Grammar> visitor : visitors) {
+        visitor.init();
+      }
+      walker = new IterativeAstWalker(visitors);
+    }
+
+    @Override
+    public void visitFile(@Nullable AstNode astNode) {
+      AstNode tree = astNode == null ? null : parser.tree;
+      walker.visitFile(tree);
+      if (tree != null) {
+        walker.walk(tree);
+      }
+      skippedFileMetrics = parser.skipped ? measure(parser.source) : null;
+      if (parser.source != null && lineVisitors.length > 0) {
+        visitLines(parser.source, new LineOffsets(parser.source));
+      }
+    }
+
+    /**
+     * Returns null if the source cannot be lexed.
+     */
+    @Nullable
+    private TokenMetricsVisitor measure(CharSequence source) {
+      TokenMetricsVisitor metrics = new TokenMetricsVisitor(ignoreHeaderComments);
+      try {
+        streamingLexer.lex(new CharSequenceReader(source), getContext().getFile().toURI(), metrics);
+      } catch (LexerException e) {
+        LOG.warn("Unable to lex skipped file " + getContext().getFile().getPath() + ": only its lines are counted", e);
+        return null;
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      return metrics;
+    }
+
+    private void visitLines(CharSequence source, LineOffsets lineOffsets) {
+      for (PhysicalLineVisitor visitor : lineVisitors) {
+        visitor.visitContents(source);
+      }
+      for (int line = 1; line <= lineOffsets.getLineCount(); line++) {
+        int start = lineOffsets.getStart(line);
+        int end = lineOffsets.getEnd(line);
+        for (PhysicalLineVisitor visitor : lineVisitors) {
+          visitor.visitLine(line, start, end);
+        }
+      }
+      for (PhysicalLineVisitor visitor : lineVisitors) {
+        visitor.leaveContents();
+      }
+    }
+
+    @Override
+    public void leaveFile(@Nullable AstNode astNode) {
+      walker.leaveFile(astNode == null ? null : parser.tree);
+      SourceFile sourceFile = (SourceFile) getContext().peekSourceCode();
+      if (parser.skipped && skippedFileMetrics == null) {
+        sourceFile.setMeasure(PHPMetric.LINES, new LineOffsets(parser.source).getLineCount());
+      } else if (skippedFileMetrics != null) {
+        sourceFile.setMeasure(PHPMetric.LINES, skippedFileMetrics.getLines());
+        sourceFile.setMeasure(PHPMetric.LINES_OF_CODE, skippedFileMetrics.getLinesOfCode());
+        sourceFile.setMeasure(PHPMetric.COMMENT_LINES, skippedFileMetrics.getCommentLines());
+        sourceFile.addNoSonarTagLines(skippedFileMetrics.getNoSonarLines());
+      }
+    }
+
+    @Override
+    public void processRecognitionException(RecognitionException e) {
+      for (SquidAstVisitor<Grammar> visitor : visitors) {
+        if (visitor instanceof AstScannerExceptionHandler) {
+          ((AstScannerExceptionHandler) visitor).processRecognitionException(e);
+        }
+      }
+    }
+
+    @Override
+    public void processException(Exception e) {
+      for (SquidAstVisitor<Grammar> visitor : visitors) {
+        if (visitor instanceof AstScannerExceptionHandler) {
+          ((AstScannerExceptionHandler) visitor).processException(e);
+        }
+      }
+    }
+
+    @Override
+    public void destroy() {
+      for (SquidAstVisitor<Grammar> visitor : visitors) {
+        visitor.destroy();
       }
     }
   }
@@ -97,7 +317,10 @@ public class PHPAstScanner {
 
   public static AstScanner<Grammar> create(PHPConfiguration conf, SquidAstVisitor<Grammar>... visitors) {
     final SquidAstVisitorContextImpl<Grammar> context = new SquidAstVisitorContextImpl<Grammar>(new SourceProject("PHP Project"));
-    final Parser<Grammar> parser = PHPParser.create(conf);
+    final TreeHoldingParser parser = new TreeHoldingParser(conf,
+      conf.getParseTimeout() > 0 ? PHPParser.createTimeLimited(conf, conf.getParseTimeout()) : PHPParser.create(conf),
+      conf.getSourceCache() == null ? new PHPSourceCache(conf.getCharset(), 0) : conf.getSourceCache());
+    final List<SquidAstVisitor<Grammar>> walkedVisitors = Lists.newArrayList();
 
     AstScanner.Builder<Grammar> builder = AstScanner.<Grammar>builder(context).setBaseParser(parser);
 
@@ -106,7 +329,7 @@ public class PHPAstScanner {
     builder.setFilesMetric(PHPMetric.FILES);
 
     /* Classes */
-    builder.withSquidAstVisitor(new SourceCodeBuilderVisitor<Grammar>(new SourceCodeBuilderCallback() {
+    walkedVisitors.add(new SourceCodeBuilderVisitor<Grammar>(new SourceCodeBuilderCallback() {
       private int seq = 0;
 
       @Override
@@ -118,13 +341,13 @@ public class PHPAstScanner {
       }
     }, PHPGrammar.CLASS_DECLARATION, PHPGrammar.INTERFACE_DECLARATION));
 
-    builder.withSquidAstVisitor(CounterVisitor.<Grammar>builder().setMetricDef(PHPMetric.CLASSES)
+    walkedVisitors.add(CounterVisitor.<Grammar>builder().setMetricDef(PHPMetric.CLASSES)
       .subscribeTo(PHPGrammar.CLASS_DECLARATION)
       .subscribeTo(PHPGrammar.INTERFACE_DECLARATION)
       .build());
 
     /* Functions */
-    builder.withSquidAstVisitor(new SourceCodeBuilderVisitor<Grammar>(new SourceCodeBuilderCallback() {
+    walkedVisitors.add(new SourceCodeBuilderVisitor<Grammar>(new SourceCodeBuilderCallback() {
       private int seq = 0;
 
       @Override
@@ -136,14 +359,14 @@ public class PHPAstScanner {
       }
     }, PHPGrammar.METHOD_DECLARATION, PHPGrammar.FUNCTION_DECLARATION, PHPGrammar.FUNCTION_EXPRESSION));
 
-    builder.withSquidAstVisitor(CounterVisitor.<Grammar>builder()
+    walkedVisitors.add(CounterVisitor.<Grammar>builder()
       .setMetricDef(PHPMetric.FUNCTIONS)
       .subscribeTo(PHPGrammar.METHOD_DECLARATION, PHPGrammar.FUNCTION_DECLARATION, PHPGrammar.FUNCTION_EXPRESSION)
       .build());
 
     /* Metrics */
-    builder.withSquidAstVisitor(new LinesVisitor<Grammar>(PHPMetric.LINES));
-    builder.withSquidAstVisitor(new LinesOfCodeVisitor<Grammar>(PHPMetric.LINES_OF_CODE) {
+    walkedVisitors.add(new LinesVisitor<Grammar>(PHPMetric.LINES));
+    walkedVisitors.add(new LinesOfCodeVisitor<Grammar>(PHPMetric.LINES_OF_CODE) {
       @Override
       public void visitToken(Token token) {
         if (!token.getType().equals(PHPTagsChannel.INLINE_HTML) && !token.getType().equals(PHPTagsChannel.FILE_OPENING_TAG)) {
@@ -152,13 +375,10 @@ public class PHPAstScanner {
       }
     });
 
-    builder.withSquidAstVisitor(new ComplexityVisitor());
-    builder.withSquidAstVisitor(CommentsVisitor.<Grammar>builder().withCommentMetric(PHPMetric.COMMENT_LINES)
-      .withNoSonar(true)
-      .withIgnoreHeaderComment(conf.getIgnoreHeaderComments())
-      .build());
+    walkedVisitors.add(new ComplexityVisitor());
+    walkedVisitors.add(new CommentLinesVisitor(conf.getIgnoreHeaderComments()));
 
-    builder.withSquidAstVisitor(CounterVisitor.<Grammar>builder()
+    walkedVisitors.add(CounterVisitor.<Grammar>builder()
       .setMetricDef(PHPMetric.STATEMENTS)
       .subscribeTo(
         PHPGrammar.USE_STATEMENT,
@@ -193,12 +413,21 @@ public class PHPAstScanner {
       .build());
 
     /* External visitors (typically Check ones) */
+    List<PhysicalLineVisitor> lineVisitors = Lists.newArrayList();
     for (SquidAstVisitor<Grammar> visitor : visitors) {
       if (visitor instanceof CharsetAwareVisitor) {
         ((CharsetAwareVisitor) visitor).setCharset(conf.getCharset());
       }
-      builder.withSquidAstVisitor(visitor);
+      if (visitor instanceof PhysicalLineVisitor) {
+        lineVisitors.add((PhysicalLineVisitor) visitor);
+      }
+      walkedVisitors.add(visitor);
+    }
+
+    for (SquidAstVisitor<Grammar> visitor : walkedVisitors) {
+      visitor.setContext(context);
     }
+    builder.withSquidAstVisitor(new WalkingVisitor(conf, parser, walkedVisitors, lineVisitors));
 
     return builder.build();
   }
@@ -21,11 +21,17 @@ package org.sonar.php;
 
 import org.sonar.squidbridge.api.SquidConfiguration;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import java.nio.charset.Charset;
 
 public class PHPConfiguration extends SquidConfiguration {
 
   private boolean ignoreHeaderComments;
+  private boolean fastLexer;
+  private boolean compactAst;
+  private long parseTimeout;
+  private PHPSourceCache sourceCache;
 
   public PHPConfiguration(Charset charset) {
     super(charset);
@@ -38,4 +44,53 @@ public class PHPConfiguration extends SquidConfiguration {
   public boolean getIgnoreHeaderComments() {
     return ignoreHeaderComments;
   }
+
+  /**
+   * When enabled, source files are tokenized by {@link org.sonar.php.lexer.PHPDispatchChannel}
+   * instead of the chain of regular expression channels.
+   */
+  public void setFastLexer(boolean fastLexer) {
+    this.fastLexer = fastLexer;
+  }
+
+  public boolean getFastLexer() {
+    return fastLexer;
+  }
+
+  /**
+   * When enabled, the scanner turns the tree of each file into a {@link org.sonar.php.parser.CompactAst} as soon as it
+   * is parsed, and the visitors walk views of its nodes.
+   */
+  public void setCompactAst(boolean compactAst) {
+    this.compactAst = compactAst;
+  }
+
+  public boolean getCompactAst() {
+    return compactAst;
+  }
+
+  /**
+   * Time in milliseconds allowed to lex and parse each file, after which the file is skipped. 0, the default, means
+   * no limit.
+   */
+  public void setParseTimeout(long parseTimeout) {
+    this.parseTimeout = parseTimeout;
+  }
+
+  public long getParseTimeout() {
+    return parseTimeout;
+  }
+
+  /**
+   * Cache from which the scanner takes the contents of source files, so that they are read once for all the consumers
+   * which share the cache. Its charset must be the one of this configuration.
+   */
+  public void setSourceCache(@Nullable PHPSourceCache sourceCache) {
+    this.sourceCache = sourceCache;
+  }
+
+  @CheckForNull
+  public PHPSourceCache getSourceCache() {
+    return sourceCache;
+  }
 }
@@ -0,0 +1,149 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * Contents of source files, decoded once and shared by all the consumers of a file instead of being read again by each
+ * one of them. A consumer {@link #acquire(File)}s the contents of a file, and must {@link #release(File)} them once
+ * done. Contents are kept as long as the cache holds no more than its maximum number of characters. Once it is full,
+ * the contents of other files are dropped when released: consumers read the files one after the other, in the same
+ * order, so evicting the least recently used contents would leave none of them for the next consumer, whereas keeping
+ * the first ones gives every consumer as many hits as fit in the cache.
+ * <p/>
+ * When asked to, the cache also keeps a digest of the bytes of each file it reads, even once its contents are dropped,
+ * so that the files which do not fit in the cache are not read again just to tell whether they changed. Thread-safe.
+ */
+public class PHPSourceCache {
+
+  private static class Entry {
+    private final CharBuffer contents;
+    private final boolean kept;
+    private int references;
+
+    Entry(CharBuffer contents, boolean kept) {
+      this.contents = contents;
+      this.kept = kept;
+    }
+  }
+
+  private final Charset charset;
+  private final long maxChars;
+  private final boolean keepDigests;
+  private final Map<String, Entry> entries = Maps.newHashMap();
+  private final Map<String, byte[]> digests = Maps.newHashMap();
+  private long chars;
+  private int reads;
+
+  public PHPSourceCache(Charset charset, long maxChars) {
+    this(charset, maxChars, false);
+  }
+
+  public PHPSourceCache(Charset charset, long maxChars, boolean keepDigests) {
+    this.charset = charset;
+    this.maxChars = maxChars;
+    this.keepDigests = keepDigests;
+  }
+
+  public Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Returns a read-only view of the contents of the given file, which is read if it is not in the cache.
+   */
+  public synchronized CharSequence acquire(File file) {
+    String path = file.getAbsolutePath();
+    Entry entry = entries.get(path);
+    if (entry == null) {
+      CharBuffer contents = read(file);
+      boolean kept = chars + contents.length() <= maxChars;
+      entry = new Entry(contents, kept);
+      entries.put(path, entry);
+      if (kept) {
+        chars += contents.length();
+      }
+    }
+    entry.references++;
+    return entry.contents.asReadOnlyBuffer();
+  }
+
+  public synchronized void release(File file) {
+    String path = file.getAbsolutePath();
+    Entry entry = entries.get(path);
+    if (entry == null || entry.references == 0) {
+      throw new IllegalStateException("Contents of " + file.getPath() + " are not acquired");
+    }
+    entry.references--;
+    if (entry.references == 0 && !entry.kept) {
+      entries.remove(path);
+    }
+  }
+
+  /**
+   * Returns the SHA-1 digest of the bytes of the given file, which is only read if it has not been read yet.
+   */
+  public synchronized byte[] digest(File file) {
+    if (!keepDigests) {
+      throw new UnsupportedOperationException("Digests are not kept");
+    }
+    byte[] digest = digests.get(file.getAbsolutePath());
+    if (digest == null) {
+      acquire(file);
+      release(file);
+      digest = digests.get(file.getAbsolutePath());
+    }
+    return digest.clone();
+  }
+
+  /**
+   * Number of files read so far.
+   */
+  public synchronized int getReads() {
+    return reads;
+  }
+
+  private CharBuffer read(File file) {
+    try {
+      byte[] bytes = Files.toByteArray(file);
+      reads++;
+      if (keepDigests) {
+        digests.put(file.getAbsolutePath(), MessageDigest.getInstance("SHA-1").digest(bytes));
+      }
+      return charset.decode(ByteBuffer.wrap(bytes));
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read " + file.getPath(), e);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.api;
+
+/**
+ * Visitor of the physical lines of each file. The scanner reads each file once, computes the offsets of its lines and
+ * calls all such visitors in a single loop over them: lines are given as ranges of the contents, not as strings.
+ */
+public interface PhysicalLineVisitor {
+
+  /**
+   * Called before the lines of each file, with its contents, even if it could not be parsed.
+   */
+  void visitContents(CharSequence contents);
+
+  /**
+   * @param line  number of the line, from 1
+   * @param start offset of the first character of the line in the contents
+   * @param end   offset after the last character of the line, excluding its terminator
+   */
+  void visitLine(int line, int start, int end);
+
+  /**
+   * Called after the last line of each file.
+   */
+  void leaveContents();
+
+}
@@ -0,0 +1,80 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.sonar.sslr.impl.Lexer;
+import org.sonar.sslr.channel.Channel;
+import org.sonar.sslr.channel.CodeReader;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Channel to put before all the others, which stops the lexer once it is cancelled: by {@link #cancel()}, or once the
+ * time given to {@link #startTimer(long)} has elapsed. It is checked before each token, so a single regular expression
+ * which backtracks is not stopped. The clock is only read at every {@value #CLOCK_CHECK_INTERVAL}th check, as reading
+ * it takes a sizeable part of the time needed to recognize a token.
+ */
+public class CancellationChannel extends Channel<Lexer> {
+
+  private static final int CLOCK_CHECK_INTERVAL = 64;
+
+  private volatile boolean cancelled;
+  private boolean timed;
+  private long deadline;
+  private int checks;
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Clears the cancellation, and cancels again once the given number of milliseconds has elapsed.
+   */
+  public void startTimer(long timeout) {
+    cancelled = false;
+    timed = true;
+    deadline = System.nanoTime() + timeout * 1000000;
+    checks = 0;
+  }
+
+  /**
+   * Clears the cancellation and the timer.
+   */
+  public void reset() {
+    cancelled = false;
+    timed = false;
+  }
+
+  public boolean isCancelled() {
+    if (!cancelled && timed && ++checks % CLOCK_CHECK_INTERVAL == 0 && System.nanoTime() - deadline > 0) {
+      cancelled = true;
+    }
+    return cancelled;
+  }
+
+  @Override
+  public boolean consume(CodeReader code, Lexer lexer) {
+    if (isCancelled()) {
+      throw new CancellationException("Lexing cancelled at line " + code.getLinePosition());
+    }
+    return false;
+  }
+
+}
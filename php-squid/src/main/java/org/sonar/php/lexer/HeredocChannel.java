@@ -0,0 +1,123 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.Lexer;
+import org.sonar.php.api.PHPTokenType;
+import org.sonar.sslr.channel.Channel;
+import org.sonar.sslr.channel.CodeReader;
+
+/**
+ * Consumes heredoc and nowdoc strings. The label is read once, then only the starts of lines
+ * are compared with it, so that lexing time is linear in the size of the heredoc.
+ */
+public class HeredocChannel extends Channel<Lexer> {
+
+  private final Token.Builder tokenBuilder = Token.builder();
+  private final StringBuilder tmpBuilder = new StringBuilder();
+
+  @Override
+  public boolean consume(CodeReader code, Lexer lexer) {
+    if (code.peek() != '<' || code.charAt(1) != '<' || code.charAt(2) != '<') {
+      return false;
+    }
+    int length = heredocLength(code);
+    if (length == 0) {
+      return false;
+    }
+
+    int line = code.getLinePosition();
+    int column = code.getColumnPosition();
+    tmpBuilder.ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      tmpBuilder.append((char) code.pop());
+    }
+    lexer.addToken(tokenBuilder
+      .setType(PHPTokenType.HEREDOC)
+      .setValueAndOriginalValue(tmpBuilder.toString())
+      .setURI(lexer.getURI())
+      .setLine(line)
+      .setColumn(column)
+      .build());
+    tmpBuilder.setLength(0);
+    return true;
+  }
+
+  /**
+   * Length of the heredoc or nowdoc starting with "<<<": the body ends with the first
+   * line break directly followed by the label. Returns 0 if there is no such line.
+   */
+  static int heredocLength(CharSequence cs) {
+    int length = cs.length();
+    if (length < 4) {
+      return 0;
+    }
+    char quote = cs.charAt(3);
+    boolean quoted = quote == '"' || quote == '\'';
+    int labelStart = quoted ? 4 : 3;
+    int labelEnd = labelStart;
+    while (labelEnd < length && isLabelPart(cs.charAt(labelEnd))) {
+      labelEnd++;
+    }
+    if (labelEnd == labelStart) {
+      return 0;
+    }
+    int i = labelEnd;
+    if (quoted) {
+      if (labelEnd == length || cs.charAt(labelEnd) != quote) {
+        return 0;
+      }
+      i++;
+    }
+
+    int labelLength = labelEnd - labelStart;
+    while (i < length) {
+      char c = cs.charAt(i);
+      i++;
+      if (c == '\r' && i < length && cs.charAt(i) == '\n') {
+        i++;
+      } else if (c != '\n' && c != '\r') {
+        continue;
+      }
+      if (isLabelAt(cs, i, labelStart, labelLength)) {
+        return i + labelLength;
+      }
+    }
+    return 0;
+  }
+
+  private static boolean isLabelPart(char c) {
+    return c != '\r' && c != '\n' && c != '\'' && c != '"';
+  }
+
+  private static boolean isLabelAt(CharSequence cs, int offset, int labelStart, int labelLength) {
+    if (offset + labelLength > cs.length()) {
+      return false;
+    }
+    for (int i = 0; i < labelLength; i++) {
+      if (cs.charAt(offset + i) != cs.charAt(labelStart + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Views over the text of comment tokens, which give access to the contents and lines of a comment
+ * without copying its characters.
+ */
+public final class PHPComments {
+
+  private PHPComments() {
+  }
+
+  /**
+   * Contents of the given comment, without its "//", "#" or "/*" and "*&#47;" delimiters.
+   */
+  public static CharSequence contents(String comment) {
+    if (comment.startsWith("//")) {
+      return new View(comment, 2, comment.length());
+    } else if (comment.startsWith("#")) {
+      return new View(comment, 1, comment.length());
+    } else {
+      return new View(comment, 2, comment.length() - 2);
+    }
+  }
+
+  /**
+   * Lines of the given text, separated by "\r\n", "\r" or "\n". As with {@code split("\r\n?|\n", -1)},
+   * a text ending with a line separator has a last empty line.
+   */
+  public static Iterable<CharSequence> lines(final CharSequence text) {
+    return new Iterable<CharSequence>() {
+      public Iterator<CharSequence> iterator() {
+        return new LineIterator(View.of(text));
+      }
+    };
+  }
+
+  /**
+   * A line is blank when it has no letter nor digit, as for comment lines made of decoration characters.
+   */
+  public static boolean isBlank(CharSequence line) {
+    for (int i = 0; i < line.length(); i++) {
+      if (Character.isLetterOrDigit(line.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Case-sensitive search of a word in a line.
+   */
+  public static boolean contains(CharSequence line, String word) {
+    int last = line.length() - word.length();
+    for (int i = 0; i <= last; i++) {
+      int j = 0;
+      while (j < word.length() && line.charAt(i + j) == word.charAt(j)) {
+        j++;
+      }
+      if (j == word.length()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class LineIterator implements Iterator<CharSequence> {
+
+    private final View text;
+    private int start = 0;
+
+    LineIterator(View text) {
+      this.text = text;
+    }
+
+    public boolean hasNext() {
+      return start <= text.length();
+    }
+
+    public CharSequence next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      int length = text.length();
+      int end = start;
+      while (end < length && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+        end++;
+      }
+      CharSequence line = text.subSequence(start, end);
+      if (end + 1 < length && text.charAt(end) == '\r' && text.charAt(end + 1) == '\n') {
+        end++;
+      }
+      start = end + 1;
+      return line;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  /**
+   * Characters of a String from {@code start} to {@code end}, which are only copied by {@link #toString()}.
+   */
+  private static final class View implements CharSequence {
+
+    private final String string;
+    private final int start;
+    private final int end;
+
+    View(String string, int start, int end) {
+      this.string = string;
+      this.start = start;
+      this.end = end;
+    }
+
+    static View of(CharSequence cs) {
+      return cs instanceof View ? (View) cs : new View(cs.toString(), 0, cs.length());
+    }
+
+    public int length() {
+      return end - start;
+    }
+
+    public char charAt(int index) {
+      if (index < 0 || index >= length()) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length());
+      }
+      return string.charAt(start + index);
+    }
+
+    public CharSequence subSequence(int from, int to) {
+      if (from < 0 || from > to || to > length()) {
+        throw new IndexOutOfBoundsException("From: " + from + ", to: " + to + ", length: " + length());
+      }
+      return new View(string, start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+      return string.substring(start, end);
+    }
+
+  }
+
+}
@@ -0,0 +1,392 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.google.common.collect.Maps;
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
+import com.sonar.sslr.api.Trivia;
+import com.sonar.sslr.impl.Lexer;
+import org.sonar.php.api.PHPKeyword;
+import org.sonar.php.api.PHPPunctuator;
+import org.sonar.php.api.PHPTokenType;
+import org.sonar.sslr.channel.Channel;
+import org.sonar.sslr.channel.CodeReader;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Single channel which recognizes all PHP tokens by switching on the current character,
+ * instead of trying each regular expression channel of {@link PHPLexer} in turn.
+ * Produces exactly the same tokens and trivia as the regular expression channels.
+ */
+public class PHPDispatchChannel extends Channel<Lexer> {
+
+  private static final Map<String, TokenType> KEYWORDS = Maps.newHashMap();
+  private static final PHPPunctuator[][] PUNCTUATORS_BY_FIRST_CHAR = new PHPPunctuator[128][];
+
+  static {
+    for (PHPKeyword keyword : PHPKeyword.values()) {
+      KEYWORDS.put(keyword.getValue().toUpperCase(), keyword);
+    }
+
+    PHPPunctuator[] punctuators = PHPPunctuator.values();
+    Arrays.sort(punctuators, new Comparator<PHPPunctuator>() {
+      @Override
+      public int compare(PHPPunctuator a, PHPPunctuator b) {
+        return b.getValue().length() - a.getValue().length();
+      }
+    });
+    for (PHPPunctuator punctuator : punctuators) {
+      char first = punctuator.getValue().charAt(0);
+      PHPPunctuator[] candidates = PUNCTUATORS_BY_FIRST_CHAR[first];
+      if (candidates == null) {
+        candidates = new PHPPunctuator[] {punctuator};
+      } else {
+        candidates = Arrays.copyOf(candidates, candidates.length + 1);
+        candidates[candidates.length - 1] = punctuator;
+      }
+      PUNCTUATORS_BY_FIRST_CHAR[first] = candidates;
+    }
+  }
+
+  private final Channel<Lexer> tagsChannel = new PHPTagsChannel();
+  private final Channel<Lexer> heredocChannel = new HeredocChannel();
+  private final Token.Builder tokenBuilder = Token.builder();
+  private final StringBuilder tmpBuilder = new StringBuilder();
+
+  @Override
+  public boolean consume(CodeReader code, Lexer lexer) {
+    if (tagsChannel.consume(code, lexer)) {
+      return true;
+    }
+
+    int c = code.peek();
+
+    if (isWhitespace(c)) {
+      do {
+        code.pop();
+      } while (isWhitespace(code.peek()));
+      return true;
+    }
+
+    switch (c) {
+      case '#':
+        return consumeComment(code, lexer, singleLineCommentLength(code, 1));
+      case '/':
+        return consumeSlash(code, lexer);
+      case '<':
+        return heredocChannel.consume(code, lexer) || consumePunctuator(code, lexer);
+      case '"':
+      case '\'':
+        return consumeToken(code, lexer, PHPTokenType.STRING_LITERAL, quotedStringLength(code, (char) c));
+      case '`':
+        return consumeToken(code, lexer, PHPTokenType.STRING_LITERAL, executionOperatorLength(code));
+      case '$':
+        if (isIdentifierStart(code.charAt(1))) {
+          return consumeToken(code, lexer, PHPTokenType.VAR_IDENTIFIER, 1 + identifierPartLength(code, 1));
+        }
+        return consumePunctuator(code, lexer);
+      case '.':
+        return consumeToken(code, lexer, PHPTokenType.NUMERIC_LITERAL, numericLiteralLength(code)) || consumePunctuator(code, lexer);
+      default:
+        if (c >= '0' && c <= '9') {
+          return consumeToken(code, lexer, PHPTokenType.NUMERIC_LITERAL, numericLiteralLength(code));
+        } else if (isIdentifierStart(c)) {
+          return consumeIdentifierOrKeyword(code, lexer);
+        }
+        return consumePunctuator(code, lexer);
+    }
+  }
+
+  private boolean consumeSlash(CodeReader code, Lexer lexer) {
+    char next = code.charAt(1);
+    if (next == '/') {
+      return consumeComment(code, lexer, singleLineCommentLength(code, 2));
+    } else if (next == '*' && consumeComment(code, lexer, multiLineCommentLength(code))) {
+      return true;
+    }
+    return consumePunctuator(code, lexer);
+  }
+
+  private boolean consumeIdentifierOrKeyword(CodeReader code, Lexer lexer) {
+    int line = code.getLinePosition();
+    int column = code.getColumnPosition();
+    String wordOriginal = pop(code, identifierPartLength(code, 0));
+    String word = wordOriginal.toUpperCase();
+
+    lexer.addToken(tokenBuilder
+      .setType(identifierOrKeyword(word))
+      .setValueAndOriginalValue(word, wordOriginal)
+      .setURI(lexer.getURI())
+      .setLine(line)
+      .setColumn(column)
+      .build());
+    return true;
+  }
+
+  private boolean consumePunctuator(CodeReader code, Lexer lexer) {
+    PHPPunctuator punctuator = longestPunctuator(code);
+    return punctuator != null && consumeToken(code, lexer, punctuator, punctuator.getValue().length());
+  }
+
+  private boolean consumeComment(CodeReader code, Lexer lexer, int length) {
+    if (length == 0) {
+      return false;
+    }
+    int line = code.getLinePosition();
+    int column = code.getColumnPosition();
+    Token token = tokenBuilder
+      .setType(GenericTokenType.COMMENT)
+      .setValueAndOriginalValue(pop(code, length))
+      .setURI(lexer.getURI())
+      .setLine(line)
+      .setColumn(column)
+      .build();
+    lexer.addTrivia(Trivia.createComment(token));
+    return true;
+  }
+
+  private boolean consumeToken(CodeReader code, Lexer lexer, TokenType type, int length) {
+    if (length == 0) {
+      return false;
+    }
+    int line = code.getLinePosition();
+    int column = code.getColumnPosition();
+    lexer.addToken(tokenBuilder
+      .setType(type)
+      .setValueAndOriginalValue(pop(code, length))
+      .setURI(lexer.getURI())
+      .setLine(line)
+      .setColumn(column)
+      .build());
+    return true;
+  }
+
+  private String pop(CodeReader code, int length) {
+    for (int i = 0; i < length; i++) {
+      tmpBuilder.append((char) code.pop());
+    }
+    String value = tmpBuilder.toString();
+    tmpBuilder.setLength(0);
+    return value;
+  }
+
+  /**
+   * Type of the given upper-cased word: a keyword, or an identifier.
+   */
+  static TokenType identifierOrKeyword(String word) {
+    TokenType keyword = KEYWORDS.get(word);
+    return keyword == null ? GenericTokenType.IDENTIFIER : keyword;
+  }
+
+  /**
+   * Longest punctuator at the start of the given sequence, or null if there is none.
+   */
+  static PHPPunctuator longestPunctuator(CharSequence cs) {
+    char c = cs.length() == 0 ? 0 : cs.charAt(0);
+    PHPPunctuator[] candidates = c < PUNCTUATORS_BY_FIRST_CHAR.length ? PUNCTUATORS_BY_FIRST_CHAR[c] : null;
+    if (candidates != null) {
+      for (PHPPunctuator punctuator : candidates) {
+        if (startsWith(cs, punctuator.getValue())) {
+          return punctuator;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean startsWith(CharSequence cs, String prefix) {
+    if (cs.length() < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (cs.charAt(i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Same characters as {@link PHPLexer#WHITESPACE} and {@link PHPLexer#LINE_TERMINATOR}.
+   */
+  static boolean isWhitespace(int c) {
+    switch (c) {
+      case '\t':
+      case '\u000B':
+      case '\f':
+      case ' ':
+      case '\u00A0':
+      case '\uFEFF':
+      case '\n':
+      case '\r':
+      case '\u2028':
+      case '\u2029':
+        return true;
+      default:
+        return c > 0x7f && Character.getType(c) == Character.SPACE_SEPARATOR;
+    }
+  }
+
+  static boolean isIdentifierStart(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || (c >= 0x7f && c <= 0xff);
+  }
+
+  static boolean isIdentifierPart(int c) {
+    return isIdentifierStart(c) || (c >= '0' && c <= '9');
+  }
+
+  /**
+   * Returns the index of the first character after the identifier characters starting at {@code from}.
+   */
+  static int identifierPartLength(CharSequence cs, int from) {
+    int length = cs.length();
+    int i = from;
+    while (i < length && isIdentifierPart(cs.charAt(i))) {
+      i++;
+    }
+    return i - from;
+  }
+
+  /**
+   * Length of a "//" or "#" comment, which stops at the end of the line or before a closing tag.
+   */
+  static int singleLineCommentLength(CharSequence cs, int prefixLength) {
+    int length = cs.length();
+    int i = prefixLength;
+    while (i < length) {
+      char c = cs.charAt(i);
+      if (c == '\n' || c == '\r' || (c == '?' && i + 1 < length && cs.charAt(i + 1) == '>')) {
+        break;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Length of a "/*" comment, or 0 if it is not closed.
+   */
+  static int multiLineCommentLength(CharSequence cs) {
+    int length = cs.length();
+    for (int i = 2; i + 1 < length; i++) {
+      if (cs.charAt(i) == '*' && cs.charAt(i + 1) == '/') {
+        return i + 2;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Length of a single or double quoted string in which a backslash escapes the next character, or 0 if it is not closed.
+   */
+  static int quotedStringLength(CharSequence cs, char quote) {
+    int length = cs.length();
+    int i = 1;
+    while (i < length) {
+      char c = cs.charAt(i);
+      if (c == quote) {
+        return i + 1;
+      }
+      i += c == '\\' ? 2 : 1;
+    }
+    return 0;
+  }
+
+  static int executionOperatorLength(CharSequence cs) {
+    int length = cs.length();
+    for (int i = 1; i < length; i++) {
+      if (cs.charAt(i) == '`') {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Length of the numeric literal at the start of the given sequence, or 0 if there is none.
+   * Alternatives are tried in the same order as by {@link PHPLexer}: exponent, floating point, then integer.
+   */
+  static int numericLiteralLength(CharSequence cs) {
+    int length = cs.length();
+    int integerEnd = skipDigits(cs, 0, 10);
+    boolean dot = integerEnd < length && cs.charAt(integerEnd) == '.';
+    int mantissaEnd = dot ? skipDigits(cs, integerEnd + 1, 10) : integerEnd;
+    boolean fraction = dot && mantissaEnd > integerEnd + 1;
+
+    if ((integerEnd > 0 || fraction) && mantissaEnd < length && (cs.charAt(mantissaEnd) == 'e' || cs.charAt(mantissaEnd) == 'E')) {
+      int exponentStart = mantissaEnd + 1;
+      if (exponentStart < length && (cs.charAt(exponentStart) == '+' || cs.charAt(exponentStart) == '-')) {
+        exponentStart++;
+      }
+      int exponentEnd = skipDigits(cs, exponentStart, 10);
+      if (exponentEnd > exponentStart) {
+        return exponentEnd;
+      }
+    }
+
+    if (fraction) {
+      return mantissaEnd;
+    } else if (dot && integerEnd > 0) {
+      return integerEnd + 1;
+    } else if (integerEnd == 0) {
+      return 0;
+    } else if (cs.charAt(0) != '0') {
+      return integerEnd;
+    }
+    return zeroPrefixedIntegerLength(cs);
+  }
+
+  private static int zeroPrefixedIntegerLength(CharSequence cs) {
+    int octalEnd = skipDigits(cs, 1, 8);
+    if (octalEnd > 1) {
+      return octalEnd;
+    }
+    char prefix = cs.length() > 1 ? cs.charAt(1) : 0;
+    int end = 1;
+    if (prefix == 'x' || prefix == 'X') {
+      end = skipDigits(cs, 2, 16);
+    } else if (prefix == 'b') {
+      end = skipDigits(cs, 2, 2);
+    }
+    return end > 2 ? end : 1;
+  }
+
+  private static int skipDigits(CharSequence cs, int from, int radix) {
+    int length = cs.length();
+    int i = from;
+    while (i < length && isDigit(cs.charAt(i), radix)) {
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isDigit(char c, int radix) {
+    if (radix == 16) {
+      return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+    return c >= '0' && c < '0' + radix;
+  }
+
+}
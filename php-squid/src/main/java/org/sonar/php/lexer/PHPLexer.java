@@ -19,7 +19,9 @@
  */
 package org.sonar.php.lexer;
 
+import com.sonar.sslr.api.Token;
 import com.sonar.sslr.impl.Lexer;
+import com.sonar.sslr.impl.LexerException;
 import com.sonar.sslr.impl.channel.BlackHoleChannel;
 import com.sonar.sslr.impl.channel.IdentifierAndKeywordChannel;
 import com.sonar.sslr.impl.channel.PunctuatorChannel;
@@ -28,6 +30,16 @@ import org.sonar.php.api.PHPKeyword;
 import org.sonar.php.api.PHPPunctuator;
 import org.sonar.php.api.PHPTokenType;
 
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.List;
+
 import static com.sonar.sslr.impl.channel.RegexpChannelBuilder.commentRegexp;
 import static com.sonar.sslr.impl.channel.RegexpChannelBuilder.regexp;
 
@@ -43,12 +55,6 @@ public class PHPLexer {
    */
   public static final String WHITESPACE = "\\t\\u000B\\f\\u0020\\u00A0\\uFEFF\\p{Zs}";
 
-  // HEREDOC
-  private static final String HEREDOC = "(?s)"
-    + "<<<\"([^\r\n'\"]++)\".*?(?:\\r\\n?+|\\n)\\1"
-    + "|<<<'([^\r\n'\"]++)'.*?(?:\\r\\n?+|\\n)\\2"
-    + "|<<<([^\r\n'\"]++).*?(?:\\r\\n?+|\\n)\\3";
-
   // IDENTIFIERS
   private static final String IDENTIFIER_START = "[a-zA-Z_\\x7f-\\xff]";
   private static final String IDENTIFIER_PART = "[" + IDENTIFIER_START + "[0-9]]";
@@ -102,14 +108,33 @@ public class PHPLexer {
   }
 
   public static Lexer create(PHPConfiguration conf) {
+    return create(conf, null);
+  }
+
+  /**
+   * Creates a lexer which stops with a {@link java.util.concurrent.CancellationException} once the given channel
+   * is cancelled.
+   */
+  public static Lexer create(PHPConfiguration conf, @Nullable CancellationChannel cancellation) {
     Lexer.Builder builder = Lexer.builder()
       .withFailIfNoChannelToConsumeOneCharacter(true)
-      .withCharset(conf.getCharset())
+      .withCharset(conf.getCharset());
+
+    if (cancellation != null) {
+      builder.withChannel(cancellation);
+    }
 
+    if (conf.getFastLexer()) {
+      return builder
+        .withChannel(new PHPDispatchChannel())
+        .build();
+    }
+
+    builder
       .withChannel(new PHPTagsChannel())
       .withChannel(new BlackHoleChannel("[" + WHITESPACE + LINE_TERMINATOR + "]++"))
       .withChannel(commentRegexp(COMMENT))
-      .withChannel(regexp(PHPTokenType.HEREDOC, HEREDOC))
+      .withChannel(new HeredocChannel())
 
         // String Literals
       .withChannel(regexp(PHPTokenType.NUMERIC_LITERAL, NUMERIC_LITERAL))
@@ -123,4 +148,41 @@ public class PHPLexer {
     return builder.build();
   }
 
+  /**
+   * Lexes the given source, which is not encoded again, into tokens which have the given URI. The lexer of SSLR only
+   * takes the URI of its tokens from the last file or URL it lexed, so an empty URL of this URI is lexed first.
+   */
+  public static List<Token> lex(Lexer lexer, CharSequence source, URI uri) {
+    lexer.lex(emptyUrl(uri));
+    try {
+      return lexer.lex(source.toString());
+    } catch (LexerException e) {
+      // the message of this exception holds the whole source, the one of its cause the position in the file
+      throw new LexerException("Unable to lex file: " + uri, e.getCause());
+    }
+  }
+
+  private static URL emptyUrl(URI uri) {
+    try {
+      return new URL(null, uri.toString(), new URLStreamHandler() {
+        @Override
+        protected URLConnection openConnection(URL url) {
+          return new URLConnection(url) {
+            @Override
+            public void connect() {
+              // nothing to connect to
+            }
+
+            @Override
+            public InputStream getInputStream() {
+              return new ByteArrayInputStream(new byte[0]);
+            }
+          };
+        }
+      });
+    } catch (MalformedURLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
 }
@@ -0,0 +1,406 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.google.common.collect.Lists;
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
+import com.sonar.sslr.api.Trivia;
+import com.sonar.sslr.impl.LexerException;
+import org.sonar.php.PHPConfiguration;
+import org.sonar.php.api.PHPTokenType;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Lexes a source through a sliding window of characters, and hands each token to a {@link PHPTokenVisitor}
+ * as soon as it is recognized, so that memory does not grow with the size of the source. Tokens are
+ * recognized as by {@link PHPDispatchChannel}, and are the same as those of {@link PHPLexer}.
+ * <p>
+ * The window only grows to hold a token which is larger than it, such as a huge heredoc: a token is only
+ * accepted once the characters read to recognize it are at least {@link #LOOKAHEAD} characters away from
+ * the end of the window, otherwise more characters are read and the token is recognized again.
+ * An instance can be reused for several sources, but is not thread-safe.
+ */
+public class PHPStreamingLexer {
+
+  public static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+
+  /**
+   * More than the number of characters any token is looked past: "*&#47;", "?&gt;", "\r\n", or the exponent of a number.
+   */
+  static final int LOOKAHEAD = 16;
+
+  private static final int WHITESPACE = 0;
+  private static final int COMMENT = 1;
+  private static final int IDENTIFIER = 2;
+  private static final int TOKEN = 3;
+
+  private final Charset charset;
+  private final int windowSize;
+  private final Token.Builder tokenBuilder = Token.builder();
+  private final List<Trivia> trivia = Lists.newArrayList();
+  private final Window code = new Window();
+
+  private Reader reader;
+  private URI uri;
+  private int line;
+  private int column;
+  private boolean eofReached;
+
+  private int kind;
+  private TokenType type;
+  private int length;
+
+  public PHPStreamingLexer(PHPConfiguration conf) {
+    this(conf, DEFAULT_WINDOW_SIZE);
+  }
+
+  public PHPStreamingLexer(PHPConfiguration conf, int windowSize) {
+    if (windowSize <= 2 * LOOKAHEAD) {
+      throw new IllegalArgumentException("The window must be larger than " + 2 * LOOKAHEAD + " characters: " + windowSize);
+    }
+    this.charset = conf.getCharset();
+    this.windowSize = windowSize;
+  }
+
+  public void lex(File file, PHPTokenVisitor visitor) {
+    Reader fileReader = null;
+    try {
+      fileReader = new InputStreamReader(new FileInputStream(file), charset);
+      lex(fileReader, file.toURI(), visitor);
+    } catch (IOException e) {
+      throw new LexerException("Unable to lex file: " + file, e);
+    } finally {
+      close(fileReader);
+    }
+  }
+
+  /**
+   * Lexes the characters of the given reader, which is not closed.
+   */
+  public void lex(Reader source, URI sourceUri, PHPTokenVisitor visitor) throws IOException {
+    start(source, sourceUri);
+    try {
+      Token token = next();
+      while (token != null) {
+        if (token.getType() == GenericTokenType.COMMENT) {
+          trivia.add(Trivia.createComment(token));
+        } else {
+          visitToken(visitor, token);
+        }
+        token = next();
+      }
+    } finally {
+      reader = null;
+    }
+  }
+
+  private void start(Reader source, URI sourceUri) {
+    reader = source;
+    uri = sourceUri;
+    line = 1;
+    column = 0;
+    eofReached = false;
+    trivia.clear();
+    code.reset();
+  }
+
+  /**
+   * Returns the next token, comments being returned as tokens of type {@link GenericTokenType#COMMENT} rather than
+   * as trivia, or null once the EOF token has been returned.
+   */
+  private Token next() throws IOException {
+    while (code.fill(LOOKAHEAD)) {
+      recognize();
+      if (isUndecided()) {
+        code.extend();
+        continue;
+      }
+      if (length == 0) {
+        throw new LexerException("Unable to lex source code at line : " + line + " and column : " + column + " in file : " + uri);
+      }
+      Token token = emit();
+      if (token != null) {
+        return token;
+      }
+    }
+    if (eofReached) {
+      return null;
+    }
+    eofReached = true;
+    return tokenBuilder
+      .setType(GenericTokenType.EOF)
+      .setValueAndOriginalValue("EOF")
+      .setURI(uri)
+      .setLine(line)
+      .setColumn(column)
+      .build();
+  }
+
+  /**
+   * Whether the recognized token could be different with the characters which are not read yet.
+   */
+  private boolean isUndecided() {
+    return !code.eof && Math.max(code.maxIndex, length) >= code.length() - LOOKAHEAD;
+  }
+
+  /**
+   * Same dispatch as {@link PHPDispatchChannel#consume}, which only decides of the kind, type and length of the next token.
+   */
+  private void recognize() {
+    code.maxIndex = 0;
+    char c = code.charAt(0);
+    if (line == 1 && column == 0 && decide(TOKEN, PHPTagsChannel.FILE_OPENING_TAG, PHPTagsChannel.inlineHtmlLength(code, 0))) {
+      return;
+    } else if (c == '?' && code.charAt(1) == '>' && decide(TOKEN, PHPTagsChannel.INLINE_HTML, PHPTagsChannel.inlineHtmlLength(code, 2))) {
+      return;
+    }
+
+    if (PHPDispatchChannel.isWhitespace(c)) {
+      int i = 1;
+      while (PHPDispatchChannel.isWhitespace(code.charAt(i))) {
+        i++;
+      }
+      decide(WHITESPACE, null, i);
+      return;
+    }
+
+    switch (c) {
+      case '#':
+        decide(COMMENT, GenericTokenType.COMMENT, PHPDispatchChannel.singleLineCommentLength(code, 1));
+        break;
+      case '/':
+        recognizeSlash();
+        break;
+      case '<':
+        if (!(code.charAt(1) == '<' && code.charAt(2) == '<' && decide(TOKEN, PHPTokenType.HEREDOC, HeredocChannel.heredocLength(code)))) {
+          recognizePunctuator();
+        }
+        break;
+      case '"':
+      case '\'':
+        decide(TOKEN, PHPTokenType.STRING_LITERAL, PHPDispatchChannel.quotedStringLength(code, c));
+        break;
+      case '`':
+        decide(TOKEN, PHPTokenType.STRING_LITERAL, PHPDispatchChannel.executionOperatorLength(code));
+        break;
+      case '$':
+        if (PHPDispatchChannel.isIdentifierStart(code.charAt(1))) {
+          decide(TOKEN, PHPTokenType.VAR_IDENTIFIER, 1 + PHPDispatchChannel.identifierPartLength(code, 1));
+        } else {
+          recognizePunctuator();
+        }
+        break;
+      case '.':
+        if (!decide(TOKEN, PHPTokenType.NUMERIC_LITERAL, PHPDispatchChannel.numericLiteralLength(code))) {
+          recognizePunctuator();
+        }
+        break;
+      default:
+        if (c >= '0' && c <= '9') {
+          decide(TOKEN, PHPTokenType.NUMERIC_LITERAL, PHPDispatchChannel.numericLiteralLength(code));
+        } else if (PHPDispatchChannel.isIdentifierStart(c)) {
+          decide(IDENTIFIER, null, PHPDispatchChannel.identifierPartLength(code, 0));
+        } else {
+          recognizePunctuator();
+        }
+    }
+  }
+
+  private void recognizeSlash() {
+    char next = code.charAt(1);
+    if (next == '/') {
+      decide(COMMENT, GenericTokenType.COMMENT, PHPDispatchChannel.singleLineCommentLength(code, 2));
+    } else if (!(next == '*' && decide(COMMENT, GenericTokenType.COMMENT, PHPDispatchChannel.multiLineCommentLength(code)))) {
+      recognizePunctuator();
+    }
+  }
+
+  private void recognizePunctuator() {
+    TokenType punctuator = PHPDispatchChannel.longestPunctuator(code);
+    decide(TOKEN, punctuator, punctuator == null ? 0 : punctuator.getValue().length());
+  }
+
+  private boolean decide(int tokenKind, TokenType tokenType, int tokenLength) {
+    kind = tokenKind;
+    type = tokenType;
+    length = tokenLength;
+    return tokenLength > 0;
+  }
+
+  private Token emit() {
+    if (kind == WHITESPACE) {
+      advance();
+      return null;
+    }
+
+    if (kind == IDENTIFIER) {
+      String wordOriginal = code.value(length);
+      String word = wordOriginal.toUpperCase();
+      tokenBuilder
+        .setType(PHPDispatchChannel.identifierOrKeyword(word))
+        .setValueAndOriginalValue(word, wordOriginal);
+    } else {
+      tokenBuilder
+        .setType(type)
+        .setValueAndOriginalValue(code.value(length));
+    }
+    Token token = tokenBuilder
+      .setURI(uri)
+      .setLine(line)
+      .setColumn(column)
+      .build();
+    advance();
+    return token;
+  }
+
+  /**
+   * Hands the pending trivia to the visitor, then the token to which they are attached as by {@link com.sonar.sslr.impl.Lexer#addToken}.
+   */
+  private void visitToken(PHPTokenVisitor visitor, Token token) {
+    if (trivia.isEmpty()) {
+      visitor.visitToken(token);
+      return;
+    }
+    for (Trivia comment : trivia) {
+      visitor.visitTrivia(comment);
+    }
+    Token tokenWithTrivia = Token.builder(token).setTrivia(Lists.newArrayList(trivia)).build();
+    trivia.clear();
+    visitor.visitToken(tokenWithTrivia);
+  }
+
+  /**
+   * Moves past the recognized token, updating the position as {@link org.sonar.sslr.channel.CodeReader} does.
+   */
+  private void advance() {
+    for (int i = 0; i < length; i++) {
+      char c = code.charAt(i);
+      if (c == '\n' || (c == '\r' && code.charAt(i + 1) != '\n')) {
+        line++;
+        column = 0;
+      } else {
+        column++;
+      }
+    }
+    code.start += length;
+  }
+
+  private static void close(Reader fileReader) {
+    if (fileReader != null) {
+      try {
+        fileReader.close();
+      } catch (IOException e) {
+        // nothing more to do
+      }
+    }
+  }
+
+  /**
+   * Characters of the buffer from {@code start} to {@code end}. As for {@link org.sonar.sslr.channel.CodeReader},
+   * reading past the end gives {@code (char) -1}. Keeps track of the highest index which has been read.
+   */
+  private final class Window implements CharSequence {
+
+    private char[] buffer = new char[0];
+    private int start;
+    private int end;
+    private boolean eof;
+    private int maxIndex;
+
+    void reset() {
+      if (buffer.length != windowSize) {
+        buffer = new char[windowSize];
+      }
+      start = 0;
+      end = 0;
+      eof = false;
+    }
+
+    /**
+     * Reads characters until at least {@code minLength} of them are available, unless the end of the source is reached.
+     * Returns false when there are no more characters.
+     */
+    boolean fill(int minLength) throws IOException {
+      if (end - start < minLength && !eof) {
+        int remaining = end - start;
+        int capacity = buffer.length;
+        if (minLength > capacity) {
+          capacity = Math.max(minLength, 2 * capacity);
+        } else if (capacity > windowSize && minLength <= windowSize && remaining <= windowSize / 2) {
+          // back to the initial size after a large token
+          capacity = windowSize;
+        }
+        char[] target = capacity == buffer.length ? buffer : new char[capacity];
+        System.arraycopy(buffer, start, target, 0, remaining);
+        buffer = target;
+        start = 0;
+        end = remaining;
+        while (end < buffer.length && !eof) {
+          int read = reader.read(buffer, end, buffer.length - end);
+          if (read == -1) {
+            eof = true;
+          } else {
+            end += read;
+          }
+        }
+      }
+      return end > start;
+    }
+
+    /**
+     * Reads more characters: the window is moved to the current position, or doubled if it already starts there.
+     */
+    void extend() throws IOException {
+      fill(start > 0 ? buffer.length : 2 * buffer.length);
+    }
+
+    String value(int length) {
+      return new String(buffer, start, length);
+    }
+
+    public int length() {
+      return end - start;
+    }
+
+    public char charAt(int index) {
+      if (index > maxIndex) {
+        maxIndex = index;
+      }
+      int i = start + index;
+      return i < end ? buffer[i] : (char) -1;
+    }
+
+    public CharSequence subSequence(int from, int to) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
@@ -20,9 +20,9 @@
 package org.sonar.php.lexer;
 
 import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Token;
 import com.sonar.sslr.api.TokenType;
 import com.sonar.sslr.impl.Lexer;
-import com.sonar.sslr.impl.channel.RegexpChannel;
 import org.sonar.sslr.channel.Channel;
 import org.sonar.sslr.channel.CodeReader;
 
@@ -65,19 +65,65 @@ public class PHPTagsChannel extends Channel<Lexer> {
   public static final String OPENING = "<\\?(php|=|)";
   public static final String CLOSING = "\\?>";
 
-  private static final String START = "(?:(?!" + OPENING + ")[\\s\\S])*+(" + OPENING + ")?+";
-  private static final String END = CLOSING + START;
-
-  private final Channel<Lexer> start = new RegexpChannel(FILE_OPENING_TAG, START);
-  private final Channel<Lexer> end = new RegexpChannel(INLINE_HTML, END);
+  private final Token.Builder tokenBuilder = Token.builder();
+  private final StringBuilder tmpBuilder = new StringBuilder();
 
   @Override
   public boolean consume(CodeReader code, Lexer lexer) {
     if ((code.getLinePosition() == 1) && (code.getColumnPosition() == 0)) {
-      return start.consume(code, lexer);
-    } else {
-      return end.consume(code, lexer);
+      return consume(code, lexer, FILE_OPENING_TAG, inlineHtmlLength(code, 0));
+    } else if (code.peek() == '?' && code.charAt(1) == '>') {
+      return consume(code, lexer, INLINE_HTML, inlineHtmlLength(code, 2));
+    }
+    return false;
+  }
+
+  private boolean consume(CodeReader code, Lexer lexer, TokenType type, int length) {
+    if (length == 0) {
+      return false;
+    }
+    int line = code.getLinePosition();
+    int column = code.getColumnPosition();
+    tmpBuilder.ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      tmpBuilder.append((char) code.pop());
+    }
+    lexer.addToken(tokenBuilder
+      .setType(type)
+      .setValueAndOriginalValue(tmpBuilder.toString())
+      .setURI(lexer.getURI())
+      .setLine(line)
+      .setColumn(column)
+      .build());
+    tmpBuilder.setLength(0);
+    return true;
+  }
+
+  /**
+   * Length of the inline HTML starting at {@code from}, including the opening tag which ends it.
+   * When there is no opening tag, the inline HTML extends to the end of the input.
+   */
+  static int inlineHtmlLength(CharSequence cs, int from) {
+    int length = cs.length();
+    for (int i = from; i + 1 < length; i++) {
+      if (cs.charAt(i) == '<' && cs.charAt(i + 1) == '?') {
+        return i + 2 + openingTagSuffixLength(cs, i + 2);
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Length of "php" or "=" following "&lt;?", as in {@link #OPENING}.
+   */
+  private static int openingTagSuffixLength(CharSequence cs, int from) {
+    int length = cs.length();
+    if (from + 2 < length && cs.charAt(from) == 'p' && cs.charAt(from + 1) == 'h' && cs.charAt(from + 2) == 'p') {
+      return 3;
+    } else if (from < length && cs.charAt(from) == '=') {
+      return 1;
     }
+    return 0;
   }
 
 }
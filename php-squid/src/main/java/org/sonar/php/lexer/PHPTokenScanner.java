@@ -0,0 +1,59 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.Trivia;
+import com.sonar.sslr.impl.Lexer;
+import org.sonar.php.PHPConfiguration;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Lexes PHP source files for consumers which only need their tokens: no syntax tree is built.
+ * An instance can be reused for several files, but is not thread-safe.
+ */
+public class PHPTokenScanner {
+
+  private final Lexer lexer;
+
+  public PHPTokenScanner(PHPConfiguration conf) {
+    this.lexer = PHPLexer.create(conf);
+  }
+
+  public void scan(File file, PHPTokenVisitor visitor) {
+    visit(lexer.lex(file), visitor);
+  }
+
+  public void scan(CharSequence source, PHPTokenVisitor visitor) {
+    visit(lexer.lex(source.toString()), visitor);
+  }
+
+  private static void visit(List<Token> tokens, PHPTokenVisitor visitor) {
+    for (Token token : tokens) {
+      for (Trivia trivia : token.getTrivia()) {
+        visitor.visitTrivia(trivia);
+      }
+      visitor.visitToken(token);
+    }
+  }
+
+}
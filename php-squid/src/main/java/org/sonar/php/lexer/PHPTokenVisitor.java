@@ -0,0 +1,42 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.Trivia;
+
+/**
+ * Receives the tokens of a source file, and their trivia, in the order of the source.
+ *
+ * @see PHPTokenScanner
+ */
+public interface PHPTokenVisitor {
+
+  /**
+   * Called for each trivia, such as a comment, before the token to which it is attached.
+   */
+  void visitTrivia(Trivia trivia);
+
+  /**
+   * Called for each token, the last one being {@link com.sonar.sslr.api.GenericTokenType#EOF}.
+   */
+  void visitToken(Token token);
+
+}
@@ -0,0 +1,90 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.metrics;
+
+import com.google.common.collect.Sets;
+import com.sonar.sslr.api.AstAndTokenVisitor;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.Trivia;
+import org.sonar.php.api.PHPMetric;
+import org.sonar.php.lexer.PHPComments;
+import org.sonar.squidbridge.SquidAstVisitor;
+import org.sonar.squidbridge.api.SourceFile;
+
+import java.util.Set;
+
+/**
+ * Computes {@link PHPMetric#COMMENT_LINES} and the lines with a NOSONAR tag, as {@link org.sonar.squidbridge.metrics.CommentsVisitor}
+ * does, but reads the lines of comments through {@link PHPComments} views instead of splitting copies of their contents.
+ */
+public class CommentLinesVisitor extends SquidAstVisitor<Grammar> implements AstAndTokenVisitor {
+
+  static final String NOSONAR = "NOSONAR";
+
+  private final boolean ignoreHeaderComments;
+  private Set<Integer> commentLines;
+  private Set<Integer> noSonarLines;
+  private boolean seenFirstToken;
+
+  public CommentLinesVisitor(boolean ignoreHeaderComments) {
+    this.ignoreHeaderComments = ignoreHeaderComments;
+  }
+
+  @Override
+  public void visitFile(AstNode astNode) {
+    commentLines = Sets.newHashSet();
+    noSonarLines = Sets.newHashSet();
+    seenFirstToken = false;
+  }
+
+  public void visitToken(Token token) {
+    if (seenFirstToken || !ignoreHeaderComments) {
+      for (Trivia trivia : token.getTrivia()) {
+        if (trivia.isComment()) {
+          visitComment(trivia.getToken());
+        }
+      }
+    }
+    seenFirstToken = true;
+  }
+
+  private void visitComment(Token comment) {
+    int line = comment.getLine();
+    for (CharSequence commentLine : PHPComments.lines(PHPComments.contents(comment.getOriginalValue()))) {
+      if (PHPComments.contains(commentLine, NOSONAR)) {
+        noSonarLines.add(line);
+      } else if (!PHPComments.isBlank(commentLine)) {
+        commentLines.add(line);
+      }
+      line++;
+    }
+  }
+
+  @Override
+  public void leaveFile(AstNode astNode) {
+    SourceFile sourceFile = (SourceFile) getContext().peekSourceCode();
+    sourceFile.addNoSonarTagLines(noSonarLines);
+    commentLines.removeAll(noSonarLines);
+    sourceFile.add(PHPMetric.COMMENT_LINES, commentLines.size());
+  }
+
+}
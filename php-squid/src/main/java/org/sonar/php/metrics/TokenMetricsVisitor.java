@@ -0,0 +1,119 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.metrics;
+
+import com.google.common.collect.Sets;
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
+import com.sonar.sslr.api.Trivia;
+import org.sonar.php.api.PHPMetric;
+import org.sonar.php.lexer.PHPComments;
+import org.sonar.php.lexer.PHPTagsChannel;
+import org.sonar.php.lexer.PHPTokenVisitor;
+
+import java.util.Set;
+
+/**
+ * Computes {@link PHPMetric#LINES}, {@link PHPMetric#LINES_OF_CODE}, {@link PHPMetric#COMMENT_LINES} and the lines with a NOSONAR tag
+ * from the tokens of a single file, with the same values as the visitors of {@link org.sonar.php.PHPAstScanner}. As tokens are visited
+ * in order, only the current line is remembered, so that a file can be measured in constant memory with
+ * {@link org.sonar.php.lexer.PHPStreamingLexer}.
+ */
+public class TokenMetricsVisitor implements PHPTokenVisitor {
+
+  private final boolean ignoreHeaderComments;
+  private final Set<Integer> noSonarLines = Sets.newHashSet();
+  private boolean seenFirstToken = false;
+  private int lines = 0;
+  private int linesOfCode = 0;
+  private int lastLineOfCode = 0;
+  private int commentLines = 0;
+
+  private int currentCommentLine = 0;
+  private boolean currentLineIsComment = false;
+  private boolean currentLineIsNoSonar = false;
+
+  public TokenMetricsVisitor(boolean ignoreHeaderComments) {
+    this.ignoreHeaderComments = ignoreHeaderComments;
+  }
+
+  public void visitTrivia(Trivia trivia) {
+    if (trivia.isComment() && (seenFirstToken || !ignoreHeaderComments)) {
+      Token comment = trivia.getToken();
+      int line = comment.getLine();
+      for (CharSequence commentLine : PHPComments.lines(PHPComments.contents(comment.getOriginalValue()))) {
+        visitCommentLine(line, commentLine);
+        line++;
+      }
+    }
+  }
+
+  public void visitToken(Token token) {
+    seenFirstToken = true;
+    TokenType type = token.getType();
+    if (type == GenericTokenType.EOF) {
+      lines = token.getLine();
+      endCommentLine();
+    } else if (type != PHPTagsChannel.FILE_OPENING_TAG && type != PHPTagsChannel.INLINE_HTML && token.getLine() != lastLineOfCode) {
+      linesOfCode++;
+      lastLineOfCode = token.getLine();
+    }
+  }
+
+  private void visitCommentLine(int line, CharSequence commentLine) {
+    if (line != currentCommentLine) {
+      endCommentLine();
+      currentCommentLine = line;
+    }
+    if (PHPComments.contains(commentLine, CommentLinesVisitor.NOSONAR)) {
+      currentLineIsNoSonar = true;
+    } else if (!PHPComments.isBlank(commentLine)) {
+      currentLineIsComment = true;
+    }
+  }
+
+  private void endCommentLine() {
+    if (currentLineIsNoSonar) {
+      noSonarLines.add(currentCommentLine);
+    } else if (currentLineIsComment) {
+      commentLines++;
+    }
+    currentLineIsNoSonar = false;
+    currentLineIsComment = false;
+  }
+
+  public int getLines() {
+    return lines;
+  }
+
+  public int getLinesOfCode() {
+    return linesOfCode;
+  }
+
+  public int getCommentLines() {
+    return commentLines;
+  }
+
+  public Set<Integer> getNoSonarLines() {
+    return noSonarLines;
+  }
+
+}
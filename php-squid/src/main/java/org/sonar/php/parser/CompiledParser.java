@@ -0,0 +1,427 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.parser;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.RecognitionException;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.Lexer;
+import com.sonar.sslr.impl.LexerException;
+import com.sonar.sslr.impl.Parser;
+import com.sonar.sslr.impl.matcher.RuleDefinition;
+import org.sonar.php.lexer.CancellationChannel;
+import org.sonar.sslr.grammar.GrammarRuleKey;
+import org.sonar.sslr.internal.matchers.ParseNode;
+import org.sonar.sslr.internal.vm.CompilableGrammarRule;
+import org.sonar.sslr.internal.vm.CompilationHandler;
+import org.sonar.sslr.internal.vm.CompiledGrammar;
+import org.sonar.sslr.internal.vm.Instruction;
+import org.sonar.sslr.internal.vm.Machine;
+import org.sonar.sslr.internal.vm.MachineStack;
+import org.sonar.sslr.internal.vm.MutableGrammarCompiler;
+import org.sonar.sslr.internal.vm.ParsingExpression;
+import org.sonar.sslr.internal.vm.RuleRefExpression;
+import org.sonar.sslr.internal.vm.lexerful.TokenTypeExpression;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Parser which compiles its rules into instructions of the SSLR parsing machine once, instead of before each parse as
+ * {@link Parser} does: compiling PHPGrammar takes about as long as matching the tokens of a small file. The rules are
+ * compiled again when the root rule changes, and must not be modified after the first parse.
+ * <p/>
+ * The parsing machine keeps its state on the heap, but SSLR creates the AstNodes by recursion over the nodes it matched,
+ * about twenty of which are nested for each level of nested expressions. So the nodes are created here without
+ * recursion, in the same way, and code nested as deeply as memory allows can be parsed.
+ * <p/>
+ * A parser can be cancelled while it parses, and a {@link RuleListener} can follow the rules which the parsing machine
+ * tries: the rules are then compiled with extra instructions, which check for cancellation at the start of each rule,
+ * or report the rules to the listener. Otherwise, the instructions are those of SSLR.
+ * <p/>
+ * This is the only class which uses the internal classes of SSLR. They may change in any release, so they are only used
+ * with the version of SSLR they were written for, see {@link #SUPPORTED_SSLR_VERSION}. With another version, parses
+ * are left to {@link Parser}, are only cancelled while lexing, and listeners are not told about rules.
+ */
+class CompiledParser extends Parser<Grammar> {
+
+  static final String SUPPORTED_SSLR_VERSION = "1.20";
+
+  private static final boolean SUPPORTED = SUPPORTED_SSLR_VERSION.equals(sslrVersion());
+
+  /**
+   * Follows the rules which the parsing machine tries, in the order it tries them. A call of a rule which reuses its
+   * memoized match is not entered. A rule which is entered and then fails to match is not exited: it is left once a
+   * rule is entered at the same depth or above, once a rule is exited above, or when the parse ends. Listeners may stop
+   * a parse by throwing an exception.
+   */
+  interface RuleListener {
+
+    void call(RuleDefinition rule);
+
+    /**
+     * @param depth number of frames of the parsing machine under the one of this rule, which only grows as rules are
+     *              nested
+     */
+    void enter(RuleDefinition rule, int depth);
+
+    /**
+     * @param tokens number of tokens matched by the rule
+     */
+    void exit(RuleDefinition rule, int depth, int tokens);
+
+  }
+
+  private final Lexer lexer;
+  private final CancellationChannel cancellation;
+  private final RuleListener listener;
+  private RuleDefinition compiledRule;
+  private Machinery machinery;
+
+  CompiledParser(Grammar grammar, Lexer lexer) {
+    this(grammar, lexer, null, null);
+  }
+
+  /**
+   * Creates a parser which stops with a {@link CancellationException} once the given channel is cancelled. The channel
+   * is checked before each rule which the parsing machine tries.
+   */
+  CompiledParser(Grammar grammar, Lexer lexer, @Nullable CancellationChannel cancellation) {
+    this(grammar, lexer, cancellation, null);
+  }
+
+  /**
+   * Creates a parser which tells the given listener about the rules it tries.
+   */
+  CompiledParser(Grammar grammar, Lexer lexer, RuleListener listener) {
+    this(grammar, lexer, null, listener);
+  }
+
+  private CompiledParser(Grammar grammar, Lexer lexer, @Nullable CancellationChannel cancellation, @Nullable RuleListener listener) {
+    super(grammar);
+    setRootRule(grammar.getRootRule());
+    this.lexer = lexer;
+    this.cancellation = cancellation;
+    this.listener = listener;
+  }
+
+  static boolean isSupported() {
+    return SUPPORTED;
+  }
+
+  @Override
+  public AstNode parse(File file) {
+    try {
+      return parse(lexer.lex(file));
+    } catch (LexerException e) {
+      throw new RecognitionException(e);
+    }
+  }
+
+  @Override
+  public AstNode parse(String source) {
+    try {
+      return parse(lexer.lex(source));
+    } catch (LexerException e) {
+      throw new RecognitionException(e);
+    }
+  }
+
+  @Override
+  public AstNode parse(List<Token> tokens) {
+    if (!SUPPORTED) {
+      return super.parse(tokens);
+    }
+    RuleDefinition rootRule = getRootRule();
+    if (rootRule != compiledRule) {
+      machinery = new Machinery(rootRule, cancellation, listener);
+      compiledRule = rootRule;
+    }
+    return machinery.parse(tokens);
+  }
+
+  /**
+   * Version of the SSLR classes on the classpath, or null if it is not known.
+   */
+  @Nullable
+  static String sslrVersion() {
+    InputStream in = Parser.class.getResourceAsStream("/META-INF/maven/org.codehaus.sonar.sslr/sslr-core/pom.properties");
+    if (in == null) {
+      return null;
+    }
+    try {
+      Properties properties = new Properties();
+      properties.load(in);
+      return properties.getProperty("version");
+    } catch (IOException e) {
+      return null;
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Uses of the internal classes of SSLR, which are only loaded with the supported version.
+   */
+  private static class Machinery {
+    private final CompiledGrammar compiledGrammar;
+    private final Map<MachineStack, Integer> depths = new IdentityHashMap<MachineStack, Integer>();
+
+    Machinery(RuleDefinition rootRule, @Nullable CancellationChannel cancellation, @Nullable RuleListener listener) {
+      if (cancellation == null && listener == null) {
+        this.compiledGrammar = MutableGrammarCompiler.compile(rootRule);
+      } else {
+        this.compiledGrammar = new RuleCompiler(this, cancellation, listener).compile(rootRule);
+      }
+    }
+
+    AstNode parse(List<Token> tokens) {
+      depths.clear();
+      return createAst(Machine.parse(tokens, compiledGrammar), tokens);
+    }
+
+    /**
+     * Frames of the machine are reused from one rule to the next, so their depths are computed once per parse.
+     */
+    private int depth(MachineStack frame) {
+      Integer depth = depths.get(frame);
+      if (depth != null) {
+        return depth;
+      }
+      Deque<MachineStack> frames = new ArrayDeque<MachineStack>();
+      MachineStack ancestor = frame;
+      while (depth == null && !ancestor.isEmpty()) {
+        frames.push(ancestor);
+        ancestor = ancestor.parent();
+        depth = depths.get(ancestor);
+      }
+      int d = depth == null ? -1 : depth;
+      while (!frames.isEmpty()) {
+        d++;
+        depths.put(frames.pop(), d);
+      }
+      return d;
+    }
+
+    /**
+     * Same tree as LexerfulAstCreator creates, with the same calls in the same order: AstNode.hasToBeSkippedFromAst()
+     * replaces the type of the nodes of rules, so it must be called as often as there.
+     */
+    private static AstNode createAst(ParseNode root, List<Token> tokens) {
+      Deque<PendingNode> stack = new ArrayDeque<PendingNode>();
+      stack.push(new PendingNode(root));
+      while (true) {
+        PendingNode pending = stack.peek();
+        List<ParseNode> children = pending.parseNode.getChildren();
+        if (pending.nextChild < children.size()) {
+          ParseNode child = children.get(pending.nextChild);
+          pending.nextChild++;
+          if (child.getMatcher() instanceof RuleDefinition) {
+            stack.push(new PendingNode(child));
+          } else {
+            pending.add(createTerminal(child, tokens));
+          }
+        } else {
+          stack.pop();
+          AstNode node = pending.create(tokens);
+          if (stack.isEmpty()) {
+            node.hasToBeSkippedFromAst();
+            return node;
+          }
+          stack.peek().add(node);
+        }
+      }
+    }
+
+    @Nullable
+    private static AstNode createTerminal(ParseNode parseNode, List<Token> tokens) {
+      Token token = tokens.get(parseNode.getStartIndex());
+      if (parseNode.getMatcher() instanceof TokenTypeExpression && token.getType().hasToBeSkippedFromAst(null)) {
+        return null;
+      }
+      AstNode node = new AstNode(token);
+      node.setFromIndex(parseNode.getStartIndex());
+      node.setToIndex(parseNode.getEndIndex());
+      return node;
+    }
+
+    /**
+     * Same instructions as MutableGrammarCompiler gives, with instructions which check for cancellation at the start of
+     * each rule, and which report the calls, starts and ends of the rules to the listener. Only the instructions which
+     * are needed are added: reporting rules costs much more than checking for cancellation.
+     */
+    private static class RuleCompiler extends CompilationHandler {
+      private final Machinery machinery;
+      private final CancellationChannel cancellation;
+      private final RuleListener listener;
+      private final Queue<CompilableGrammarRule> compilationQueue = Lists.newLinkedList();
+      private final Map<GrammarRuleKey, CompilableGrammarRule> matchers = Maps.newHashMap();
+      private final Map<GrammarRuleKey, Integer> offsets = Maps.newHashMap();
+
+      RuleCompiler(Machinery machinery, @Nullable CancellationChannel cancellation, @Nullable RuleListener listener) {
+        this.machinery = machinery;
+        this.cancellation = cancellation;
+        this.listener = listener;
+      }
+
+      CompiledGrammar compile(CompilableGrammarRule rootRule) {
+        List<Instruction> instructions = Lists.newArrayList();
+        compilationQueue.add(rootRule);
+        matchers.put(rootRule.getRuleKey(), rootRule);
+        while (!compilationQueue.isEmpty()) {
+          RuleDefinition rule = (RuleDefinition) compilationQueue.poll();
+          offsets.put(rule.getRuleKey(), instructions.size());
+          if (cancellation != null) {
+            instructions.add(cancellationCheck());
+          }
+          if (listener != null) {
+            instructions.add(enter(rule));
+          }
+          Instruction.addAll(instructions, compile(rule.getExpression()));
+          if (listener != null) {
+            instructions.add(exit(rule));
+          }
+          instructions.add(Instruction.ret());
+        }
+
+        Instruction[] result = instructions.toArray(new Instruction[instructions.size()]);
+        for (int i = 0; i < result.length; i++) {
+          if (result[i] instanceof RuleRefExpression) {
+            GrammarRuleKey ruleKey = ((RuleRefExpression) result[i]).getRuleKey();
+            result[i] = Instruction.call(offsets.get(ruleKey) - i, matchers.get(ruleKey));
+          }
+        }
+        return new CompiledGrammar(result, matchers, rootRule.getRuleKey(), offsets.get(rootRule.getRuleKey()));
+      }
+
+      @Override
+      public Instruction[] compile(ParsingExpression expression) {
+        if (expression instanceof CompilableGrammarRule) {
+          CompilableGrammarRule rule = (CompilableGrammarRule) expression;
+          if (!matchers.containsKey(rule.getRuleKey())) {
+            compilationQueue.add(rule);
+            matchers.put(rule.getRuleKey(), rule);
+          }
+          return rule.compile(this);
+        }
+        if (listener != null && expression instanceof RuleRefExpression) {
+          RuleDefinition rule = (RuleDefinition) matchers.get(((RuleRefExpression) expression).getRuleKey());
+          return new Instruction[] {call(rule), (RuleRefExpression) expression};
+        }
+        return expression.compile(this);
+      }
+
+      private Instruction cancellationCheck() {
+        return new Instruction() {
+          @Override
+          public void execute(Machine machine) {
+            if (cancellation.isCancelled()) {
+              throw new CancellationException("Parsing cancelled at token " + machine.getIndex());
+            }
+            machine.jump(1);
+          }
+        };
+      }
+
+      private Instruction call(final RuleDefinition rule) {
+        return new Instruction() {
+          @Override
+          public void execute(Machine machine) {
+            listener.call(rule);
+            machine.jump(1);
+          }
+        };
+      }
+
+      private Instruction enter(final RuleDefinition rule) {
+        return new Instruction() {
+          @Override
+          public void execute(Machine machine) {
+            listener.enter(rule, machinery.depth(machine.peek()));
+            machine.jump(1);
+          }
+        };
+      }
+
+      private Instruction exit(final RuleDefinition rule) {
+        return new Instruction() {
+          @Override
+          public void execute(Machine machine) {
+            MachineStack frame = machine.peek();
+            listener.exit(rule, machinery.depth(frame), machine.getIndex() - frame.index());
+            machine.jump(1);
+          }
+        };
+      }
+    }
+
+    /**
+     * Node of a rule whose children are being created.
+     */
+    private static class PendingNode {
+      private final ParseNode parseNode;
+      private final List<AstNode> children = Lists.newArrayList();
+      private int nextChild;
+
+      PendingNode(ParseNode parseNode) {
+        this.parseNode = parseNode;
+      }
+
+      void add(@Nullable AstNode child) {
+        if (child == null) {
+          return;
+        }
+        if (child.hasToBeSkippedFromAst()) {
+          children.addAll(child.getChildren());
+        } else {
+          children.add(child);
+        }
+      }
+
+      AstNode create(List<Token> tokens) {
+        RuleDefinition rule = (RuleDefinition) parseNode.getMatcher();
+        int startIndex = parseNode.getStartIndex();
+        Token token = startIndex < tokens.size() ? tokens.get(startIndex) : null;
+        AstNode node = new AstNode(rule, rule.getName(), token);
+        for (AstNode child : children) {
+          node.addChild(child);
+        }
+        node.setFromIndex(startIndex);
+        node.setToIndex(parseNode.getEndIndex());
+        return node;
+      }
+    }
+  }
+
+}
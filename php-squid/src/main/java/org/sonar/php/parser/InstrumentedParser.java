@@ -0,0 +1,332 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.parser;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.RecognitionException;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.Lexer;
+import com.sonar.sslr.impl.LexerException;
+import com.sonar.sslr.impl.matcher.RuleDefinition;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parser which records, for all the files it parses, the time spent lexing and parsing, and for each rule of the
+ * grammar, what the parsing machine did with it: {@link #toJson()} exports them.
+ * <ul>
+ * <li>calls: number of times the rule was called, including the calls answered by a memoized match</li>
+ * <li>invocations: number of times the rule was tried</li>
+ * <li>matches: number of invocations which matched</li>
+ * <li>backtracks: number of invocations which failed, the machine going back to an earlier token</li>
+ * <li>tokens: number of tokens matched by all the matches</li>
+ * <li>selfTimeMs: time spent in the rule itself, without the time spent in the rules it called</li>
+ * </ul>
+ * Rules are reported by the parsing machine only with the supported version of SSLR, see {@link CompiledParser}.
+ * Otherwise, only the times of the files are recorded.
+ */
+public class InstrumentedParser extends CompiledParser {
+
+  private static class RuleStatistics {
+    private final String name;
+    private long calls;
+    private long invocations;
+    private long matches;
+    private long backtracks;
+    private long tokens;
+    private long selfTime;
+
+    RuleStatistics(String name) {
+      this.name = name;
+    }
+  }
+
+  private static final Comparator<RuleStatistics> BY_SELF_TIME = new Comparator<RuleStatistics>() {
+    @Override
+    public int compare(RuleStatistics a, RuleStatistics b) {
+      if (a.selfTime != b.selfTime) {
+        return a.selfTime > b.selfTime ? -1 : 1;
+      }
+      return a.name.compareTo(b.name);
+    }
+  };
+
+  /**
+   * Keeps track of the rules being tried, so as to count backtracks and to share the parse time among rules.
+   */
+  private static class Recorder implements RuleListener {
+    private final Map<String, RuleStatistics> rules = Maps.newHashMap();
+    private RuleStatistics[] openRules = new RuleStatistics[64];
+    private int[] openDepths = new int[64];
+    private int open;
+    private long lastTime;
+
+    @Override
+    public void call(RuleDefinition rule) {
+      statistics(rule).calls++;
+    }
+
+    @Override
+    public void enter(RuleDefinition rule, int depth) {
+      tick();
+      backtrack(depth);
+      if (open == openRules.length) {
+        openRules = Arrays.copyOf(openRules, open * 2);
+        openDepths = Arrays.copyOf(openDepths, open * 2);
+      }
+      RuleStatistics statistics = statistics(rule);
+      statistics.invocations++;
+      openRules[open] = statistics;
+      openDepths[open] = depth;
+      open++;
+    }
+
+    @Override
+    public void exit(RuleDefinition rule, int depth, int tokens) {
+      tick();
+      backtrack(depth + 1);
+      open--;
+      openRules[open].matches++;
+      openRules[open].tokens += tokens;
+    }
+
+    void start() {
+      open = 0;
+      lastTime = System.nanoTime();
+    }
+
+    void end() {
+      tick();
+      backtrack(0);
+    }
+
+    /**
+     * Counts the time since the last event for the innermost rule being tried.
+     */
+    private void tick() {
+      long time = System.nanoTime();
+      if (open > 0) {
+        openRules[open - 1].selfTime += time - lastTime;
+      }
+      lastTime = time;
+    }
+
+    /**
+     * Closes the invocations at the given depth or below, which failed since they were not exited.
+     */
+    private void backtrack(int depth) {
+      while (open > 0 && openDepths[open - 1] >= depth) {
+        open--;
+        openRules[open].backtracks++;
+      }
+    }
+
+    private RuleStatistics statistics(RuleDefinition rule) {
+      RuleStatistics statistics = rules.get(rule.getName());
+      if (statistics == null) {
+        statistics = new RuleStatistics(rule.getName());
+        rules.put(rule.getName(), statistics);
+      }
+      return statistics;
+    }
+  }
+
+  private final Lexer lexer;
+  private final Recorder recorder;
+
+  private int files;
+  private int failures;
+  private long tokens;
+  private long lexTime;
+  private long parseTime;
+  private String slowestFile;
+  private int slowestFileTokens;
+  private long slowestFileParseTime = -1;
+
+  InstrumentedParser(Grammar grammar, Lexer lexer) {
+    this(grammar, lexer, new Recorder());
+  }
+
+  private InstrumentedParser(Grammar grammar, Lexer lexer, Recorder recorder) {
+    super(grammar, lexer, recorder);
+    this.lexer = lexer;
+    this.recorder = recorder;
+  }
+
+  @Override
+  public AstNode parse(File file) {
+    return parse(lex(file, null), file.getPath());
+  }
+
+  @Override
+  public AstNode parse(String source) {
+    return parse(lex(null, source), null);
+  }
+
+  @Override
+  public AstNode parse(List<Token> tokens) {
+    return parse(tokens, null);
+  }
+
+  private List<Token> lex(@Nullable File file, @Nullable String source) {
+    long start = System.nanoTime();
+    try {
+      return file == null ? lexer.lex(source) : lexer.lex(file);
+    } catch (LexerException e) {
+      throw new RecognitionException(e);
+    } finally {
+      lexTime += System.nanoTime() - start;
+    }
+  }
+
+  private AstNode parse(List<Token> tokens, @Nullable String name) {
+    files++;
+    this.tokens += tokens.size();
+    long start = System.nanoTime();
+    recorder.start();
+    AstNode root = null;
+    try {
+      root = super.parse(tokens);
+    } finally {
+      recorder.end();
+      long time = System.nanoTime() - start;
+      parseTime += time;
+      if (root == null) {
+        failures++;
+      }
+      if (time > slowestFileParseTime) {
+        slowestFile = name;
+        slowestFileTokens = tokens.size();
+        slowestFileParseTime = time;
+      }
+    }
+    return root;
+  }
+
+  public int getFiles() {
+    return files;
+  }
+
+  public long getCalls(String rule) {
+    RuleStatistics statistics = recorder.rules.get(rule);
+    return statistics == null ? 0 : statistics.calls;
+  }
+
+  public long getInvocations(String rule) {
+    RuleStatistics statistics = recorder.rules.get(rule);
+    return statistics == null ? 0 : statistics.invocations;
+  }
+
+  public long getMatches(String rule) {
+    RuleStatistics statistics = recorder.rules.get(rule);
+    return statistics == null ? 0 : statistics.matches;
+  }
+
+  public long getBacktracks(String rule) {
+    RuleStatistics statistics = recorder.rules.get(rule);
+    return statistics == null ? 0 : statistics.backtracks;
+  }
+
+  public long getTokens(String rule) {
+    RuleStatistics statistics = recorder.rules.get(rule);
+    return statistics == null ? 0 : statistics.tokens;
+  }
+
+  public void reset() {
+    recorder.rules.clear();
+    files = 0;
+    failures = 0;
+    tokens = 0;
+    lexTime = 0;
+    parseTime = 0;
+    slowestFile = null;
+    slowestFileTokens = 0;
+    slowestFileParseTime = -1;
+  }
+
+  /**
+   * @return the statistics of the files parsed since the creation of this parser or its last reset, rules being sorted
+   * by decreasing self time
+   */
+  public String toJson() {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n");
+    json.append("  \"files\": ").append(files).append(",\n");
+    json.append("  \"failures\": ").append(failures).append(",\n");
+    json.append("  \"tokens\": ").append(tokens).append(",\n");
+    json.append("  \"lexTimeMs\": ").append(milliseconds(lexTime)).append(",\n");
+    json.append("  \"parseTimeMs\": ").append(milliseconds(parseTime)).append(",\n");
+    if (slowestFileParseTime >= 0) {
+      json.append("  \"slowestFile\": {\"name\": ").append(quote(slowestFile))
+        .append(", \"tokens\": ").append(slowestFileTokens)
+        .append(", \"parseTimeMs\": ").append(milliseconds(slowestFileParseTime)).append("},\n");
+    }
+    json.append("  \"rules\": [");
+    List<RuleStatistics> sortedRules = Lists.newArrayList(recorder.rules.values());
+    Collections.sort(sortedRules, BY_SELF_TIME);
+    for (int i = 0; i < sortedRules.size(); i++) {
+      RuleStatistics statistics = sortedRules.get(i);
+      json.append(i == 0 ? "\n" : ",\n");
+      json.append("    {\"rule\": ").append(quote(statistics.name))
+        .append(", \"calls\": ").append(statistics.calls)
+        .append(", \"invocations\": ").append(statistics.invocations)
+        .append(", \"matches\": ").append(statistics.matches)
+        .append(", \"backtracks\": ").append(statistics.backtracks)
+        .append(", \"tokens\": ").append(statistics.tokens)
+        .append(", \"selfTimeMs\": ").append(milliseconds(statistics.selfTime)).append("}");
+    }
+    json.append(sortedRules.isEmpty() ? "]\n" : "\n  ]\n");
+    json.append("}\n");
+    return json.toString();
+  }
+
+  private static String milliseconds(long nanos) {
+    return String.format(Locale.ENGLISH, "%.3f", nanos / 1000000.0);
+  }
+
+  private static String quote(@Nullable String value) {
+    if (value == null) {
+      return "null";
+    }
+    StringBuilder quoted = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < ' ') {
+        quoted.append(String.format(Locale.ENGLISH, "\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.parser;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
+import com.sonar.sslr.impl.Lexer;
+import com.sonar.sslr.impl.Parser;
+import org.sonar.php.api.PHPKeyword;
+import org.sonar.php.api.PHPPunctuator;
+import org.sonar.sslr.grammar.LexerfulGrammarBuilder;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses files without the statements of the bodies of functions and methods, for the analyses which only need
+ * declarations. Each body is found by matching its braces in the tokens of the file, and is replaced by a single
+ * {@link #UNPARSED_BODY} token, which takes the place of the BLOCK node in the tree.
+ * <p/>
+ * {@link #parseBody(AstNode)} parses a body when it is needed. Bodies are kept until the next file is parsed.
+ * Bodies of anonymous functions are parsed as usual.
+ * <p/>
+ * The token is only known to the grammar of this parser, see {@link #createGrammar()}: PHPGrammar, which the other
+ * parsers share, is left as it is.
+ */
+public class PHPDeclarationParser extends CompiledParser {
+
+  public static final TokenType UNPARSED_BODY = new TokenType() {
+    @Override
+    public String getName() {
+      return "UNPARSED BODY";
+    }
+
+    @Override
+    public String getValue() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean hasToBeSkippedFromAst(AstNode node) {
+      return false;
+    }
+  };
+
+  /**
+   * Same rules as PHPGrammar, except that the body of a named function or method may be an {@link #UNPARSED_BODY}.
+   */
+  static LexerfulGrammarBuilder createGrammar() {
+    LexerfulGrammarBuilder b = PHPGrammar.create();
+    b.rule(PHPGrammar.METHOD_BODY).override(b.firstOf(PHPGrammar.EOS, PHPGrammar.BLOCK, UNPARSED_BODY));
+    b.rule(PHPGrammar.FUNCTION_DECLARATION).override(PHPKeyword.FUNCTION, b.optional(PHPGrammar.REFERENCE), GenericTokenType.IDENTIFIER,
+      PHPPunctuator.LPARENTHESIS, b.optional(PHPGrammar.PARAMETER_LIST), PHPPunctuator.RPARENTHESIS, b.firstOf(PHPGrammar.BLOCK, UNPARSED_BODY));
+    return b;
+  }
+
+  private final Parser<Grammar> bodyParser;
+  private final Map<Token, List<Token>> bodies = new IdentityHashMap<Token, List<Token>>();
+
+  PHPDeclarationParser(Grammar grammar, Lexer lexer) {
+    super(grammar, lexer);
+    this.bodyParser = new CompiledParser(grammar, lexer);
+    this.bodyParser.setRootRule(grammar.rule(PHPGrammar.BLOCK));
+  }
+
+  @Override
+  public AstNode parse(List<Token> tokens) {
+    bodies.clear();
+    return super.parse(skipBodies(tokens, bodies));
+  }
+
+  /**
+   * Parses the body of a function or method of the last parsed file.
+   *
+   * @param unparsedBody node of an {@link #UNPARSED_BODY} token
+   * @return the BLOCK node of the body
+   */
+  public AstNode parseBody(AstNode unparsedBody) {
+    List<Token> tokens = bodies.get(unparsedBody.getToken());
+    Preconditions.checkArgument(tokens != null, "Not a body of the last parsed file: " + unparsedBody);
+    return bodyParser.parse(tokens);
+  }
+
+  /**
+   * Replaces the tokens of each body by an {@link #UNPARSED_BODY} token, and puts them in the given map, followed by
+   * an EOF token. Bodies whose braces do not match are kept as they are.
+   */
+  static List<Token> skipBodies(List<Token> tokens, Map<Token, List<Token>> bodies) {
+    List<Token> result = Lists.newArrayListWithCapacity(tokens.size());
+    int i = 0;
+    while (i < tokens.size()) {
+      int bodyStart = tokens.get(i).getType() == PHPKeyword.FUNCTION ? bodyStart(tokens, i + 1) : -1;
+      int bodyEnd = bodyStart == -1 ? -1 : matchingIndex(tokens, bodyStart, PHPPunctuator.RCURLYBRACE);
+      if (bodyEnd == -1) {
+        result.add(tokens.get(i));
+        i++;
+      } else {
+        result.addAll(tokens.subList(i, bodyStart));
+
+        Token lcurly = tokens.get(bodyStart);
+        Token rcurly = tokens.get(bodyEnd);
+        Token unparsedBody = Token.builder(lcurly).setType(UNPARSED_BODY).build();
+        List<Token> body = Lists.newArrayList(tokens.subList(bodyStart, bodyEnd + 1));
+        body.add(Token.builder()
+          .setType(GenericTokenType.EOF)
+          .setValueAndOriginalValue("EOF")
+          .setURI(rcurly.getURI())
+          .setLine(rcurly.getLine())
+          .setColumn(rcurly.getColumn() + 1)
+          .build());
+        bodies.put(unparsedBody, body);
+        result.add(unparsedBody);
+
+        i = bodyEnd + 1;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return index of the opening brace of the body of a named function, whose name and parameters start at the given
+   * index, or -1
+   */
+  private static int bodyStart(List<Token> tokens, int start) {
+    int i = start;
+    if (i < tokens.size() && tokens.get(i).getType() == PHPPunctuator.AND) {
+      i++;
+    }
+    if (i >= tokens.size() || tokens.get(i).getType() != GenericTokenType.IDENTIFIER) {
+      return -1;
+    }
+    i++;
+    if (i >= tokens.size() || tokens.get(i).getType() != PHPPunctuator.LPARENTHESIS) {
+      return -1;
+    }
+    int rparenthesis = matchingIndex(tokens, i, PHPPunctuator.RPARENTHESIS);
+    if (rparenthesis == -1 || rparenthesis + 1 >= tokens.size() || tokens.get(rparenthesis + 1).getType() != PHPPunctuator.LCURLYBRACE) {
+      return -1;
+    }
+    return rparenthesis + 1;
+  }
+
+  /**
+   * @return index of the token which closes the one at the given index, or -1
+   */
+  private static int matchingIndex(List<Token> tokens, int start, TokenType closing) {
+    TokenType opening = tokens.get(start).getType();
+    int depth = 0;
+    for (int i = start; i < tokens.size(); i++) {
+      TokenType type = tokens.get(i).getType();
+      if (type == opening || (closing == PHPPunctuator.RCURLYBRACE && type == PHPPunctuator.DOLAR_LCURLY)) {
+        depth++;
+      } else if (type == closing) {
+        depth--;
+        if (depth == 0) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+}
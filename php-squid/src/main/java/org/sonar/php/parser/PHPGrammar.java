@@ -509,9 +509,9 @@ public enum PHPGrammar implements GrammarRuleKey {
     b.rule(CONDITIONAL_EXPR).is(LOGICAL_OR_EXPR, b.optional(QUERY, b.optional(ASSIGNMENT_EXPR), COLON, ASSIGNMENT_EXPR)).skipIfOneChild();
 
     b.rule(ASSIGNMENT_EXPR).is(b.firstOf(
+      operandAlone(b),
       b.sequence(VARIABLE, EQU, AND, b.firstOf(VARIABLE, NEW_EXPR)),
-      b.sequence(CONDITIONAL_EXPR, ASSIGNMENT_OPERATOR, ASSIGNMENT_EXPR),
-      CONDITIONAL_EXPR)).skipIfOneChild();
+      b.sequence(CONDITIONAL_EXPR, b.optional(ASSIGNMENT_OPERATOR, ASSIGNMENT_EXPR)))).skipIfOneChild();
     b.rule(ASSIGNMENT_OPERATOR).is(b.firstOf(EQU, COMPOUND_ASSIGNMENT, LOGICAL_ASSIGNMENT));
     b.rule(COMPOUND_ASSIGNMENT).is(b.firstOf(STAR_EQU, DIVEQUAL, MOD_EQU, PLUS_EQU, MINUS_EQU, SL_EQU, SR_EQU, CONCATEQUAL));
     b.rule(LOGICAL_ASSIGNMENT).is(b.firstOf(ANDEQUAL, XOR_EQU, OR_EQU));
@@ -519,6 +519,25 @@ public enum PHPGrammar implements GrammarRuleKey {
     b.rule(EXPRESSION).is(ASSIGNMENT_EXPR);
   }
 
+  /**
+   * Operand which is followed by a token that ends an expression, such as "$a" in "f($a)". It is the same node as the
+   * one the levels of binary operators would give, as they all skip themselves when they have one child, but does not
+   * go through each of them.
+   */
+  private static Object operandAlone(LexerfulGrammarBuilder b) {
+    return b.sequence(UNARY_EXPR, b.next(b.firstOf(
+      SEMICOLON,
+      COMMA,
+      COLON,
+      DOUBLEARROW,
+      RPARENTHESIS,
+      RBRACKET,
+      RCURLYBRACE,
+      AS,
+      PHPTagsChannel.INLINE_HTML,
+      GenericTokenType.EOF)));
+  }
+
   public static void declaration(LexerfulGrammarBuilder b) {
     b.rule(USE_CONST_DECLARATION_STATEMENT).is(USE, CONST, USE_FUNCTION_DECLARATIONS, EOS);
     b.rule(USE_FUNCTION_DECLARATION_STATEMENT).is(USE, FUNCTION, USE_FUNCTION_DECLARATIONS, EOS); // TODO martin: to check
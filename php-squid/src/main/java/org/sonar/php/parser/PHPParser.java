@@ -26,12 +26,55 @@ import org.sonar.php.lexer.PHPLexer;
 
 public class PHPParser {
 
+  /**
+   * Built once, as building the rules of PHPGrammar costs much more than creating a parser. Rules are only read while
+   * parsing, so the grammar is shared by all parsers, in any thread, and must not be modified.
+   * <p/>
+   * Matches of all rules are memoized: the parsing machine keeps, for each token, the last rule matched from it, and
+   * reuses it when the same rule is tried again from this token. Without it, alternatives which share a prefix parse
+   * it again, and nested calls and arrays take exponential time in their depth. The memo holds at most one match per
+   * token, replaced by the next rule matched from the same token.
+   */
+  private static final Grammar GRAMMAR = PHPGrammar.create().buildWithMemoizationOfMatchesForAllRules();
+
+  /**
+   * Grammar of the declaration parsers, built on their first use.
+   */
+  private static class DeclarationGrammar {
+    private static final Grammar GRAMMAR = PHPDeclarationParser.createGrammar().buildWithMemoizationOfMatchesForAllRules();
+  }
+
   private PHPParser() {
   }
 
+  /**
+   * Creates a parser on the shared grammar, with its own lexer: a parser must not be used by several threads at once.
+   */
   public static Parser<Grammar> create(PHPConfiguration conf) {
-    return Parser.builder(PHPGrammar.create().build())
-      .withLexer(PHPLexer.create(conf)).build();
+    return new CompiledParser(GRAMMAR, PHPLexer.create(conf));
+  }
+
+  /**
+   * Creates a parser which does not parse the bodies of functions and methods. Its grammar is shared by the declaration
+   * parsers only.
+   */
+  public static PHPDeclarationParser createDeclarationParser(PHPConfiguration conf) {
+    return new PHPDeclarationParser(DeclarationGrammar.GRAMMAR, PHPLexer.create(conf));
+  }
+
+  /**
+   * Creates a parser on the shared grammar which records statistics on the files it parses.
+   */
+  public static InstrumentedParser createInstrumented(PHPConfiguration conf) {
+    return new InstrumentedParser(GRAMMAR, PHPLexer.create(conf));
+  }
+
+  /**
+   * Creates a parser on the shared grammar which gives up on files it does not lex and parse within the given number
+   * of milliseconds.
+   */
+  public static TimeLimitedParser createTimeLimited(PHPConfiguration conf, long timeout) {
+    return new TimeLimitedParser(GRAMMAR, conf, timeout);
   }
 
 }
@@ -0,0 +1,130 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.parser;
+
+import com.google.common.base.Throwables;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.RecognitionException;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.Lexer;
+import com.sonar.sslr.impl.LexerException;
+import org.sonar.php.PHPConfiguration;
+import org.sonar.php.lexer.CancellationChannel;
+import org.sonar.php.lexer.PHPLexer;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Parser which gives up with a {@link ParseTimeoutException} on files which take longer than a time budget to lex and
+ * parse, so that the analysis moves on to the other files.
+ * <p/>
+ * Files are lexed and parsed by the calling thread. The lexer checks the budget before each token, and the parsing
+ * machine before each rule it tries, through a {@link CancellationChannel}: a parse stops soon after its budget runs
+ * out, and nothing is left running.
+ */
+public class TimeLimitedParser extends CompiledParser {
+
+  private final long timeout;
+  private final Lexer lexer;
+  private final CancellationChannel cancellation;
+
+  TimeLimitedParser(Grammar grammar, PHPConfiguration conf, long timeout) {
+    this(grammar, conf, timeout, new CancellationChannel());
+  }
+
+  private TimeLimitedParser(Grammar grammar, PHPConfiguration conf, long timeout, CancellationChannel cancellation) {
+    this(grammar, PHPLexer.create(conf, cancellation), timeout, cancellation);
+  }
+
+  private TimeLimitedParser(Grammar grammar, Lexer lexer, long timeout, CancellationChannel cancellation) {
+    super(grammar, lexer, cancellation);
+    this.timeout = timeout;
+    this.lexer = lexer;
+    this.cancellation = cancellation;
+  }
+
+  @Override
+  public AstNode parse(File file) {
+    cancellation.startTimer(timeout);
+    try {
+      return parseTokens(lexer.lex(file));
+    } catch (LexerException e) {
+      throw lexingFailure(e);
+    } finally {
+      cancellation.reset();
+    }
+  }
+
+  /**
+   * Parses the given source, the tokens of which have the given URI.
+   */
+  public AstNode parse(CharSequence source, URI uri) {
+    cancellation.startTimer(timeout);
+    try {
+      return parseTokens(PHPLexer.lex(lexer, source, uri));
+    } catch (LexerException e) {
+      throw lexingFailure(e);
+    } finally {
+      cancellation.reset();
+    }
+  }
+
+  @Override
+  public AstNode parse(String source) {
+    cancellation.startTimer(timeout);
+    try {
+      return parseTokens(lexer.lex(source));
+    } catch (LexerException e) {
+      throw lexingFailure(e);
+    } finally {
+      cancellation.reset();
+    }
+  }
+
+  @Override
+  public AstNode parse(List<Token> tokens) {
+    cancellation.startTimer(timeout);
+    try {
+      return parseTokens(tokens);
+    } finally {
+      cancellation.reset();
+    }
+  }
+
+  private AstNode parseTokens(List<Token> tokens) {
+    try {
+      return super.parse(tokens);
+    } catch (CancellationException e) {
+      throw new ParseTimeoutException(timeout);
+    }
+  }
+
+  private RuntimeException lexingFailure(LexerException e) {
+    if (Throwables.getRootCause(e) instanceof CancellationException) {
+      return new ParseTimeoutException(timeout);
+    }
+    return new RecognitionException(e);
+  }
+
+}
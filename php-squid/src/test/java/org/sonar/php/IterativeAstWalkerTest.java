@@ -0,0 +1,126 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.sonar.sslr.api.AstAndTokenVisitor;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.ast.AstWalker;
+import org.junit.Test;
+import org.sonar.php.api.PHPKeyword;
+import org.sonar.php.api.PHPPunctuator;
+import org.sonar.php.parser.PHPGrammar;
+import org.sonar.php.parser.PHPParser;
+import org.sonar.squidbridge.SquidAstVisitor;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IterativeAstWalkerTest {
+
+  private static class RecordingVisitor extends SquidAstVisitor<Grammar> implements AstAndTokenVisitor {
+    private final String name;
+    private final List<String> events;
+
+    RecordingVisitor(String name, List<String> events) {
+      this.name = name;
+      this.events = events;
+    }
+
+    @Override
+    public void visitFile(@Nullable AstNode astNode) {
+      events.add(name + " visitFile");
+    }
+
+    @Override
+    public void leaveFile(@Nullable AstNode astNode) {
+      events.add(name + " leaveFile");
+    }
+
+    @Override
+    public void visitNode(AstNode astNode) {
+      events.add(name + " visitNode " + astNode.getName() + " " + astNode.getToken());
+    }
+
+    @Override
+    public void leaveNode(AstNode astNode) {
+      events.add(name + " leaveNode " + astNode.getName() + " " + astNode.getToken());
+    }
+
+    @Override
+    public void visitToken(Token token) {
+      events.add(name + " visitToken " + token.getValue() + " " + token.getLine() + ":" + token.getColumn());
+    }
+  }
+
+  @Test
+  public void same_calls_as_AstWalker() {
+    for (File file : new File("src/test/resources/metrics").listFiles()) {
+      AstNode tree = PHPParser.create(new PHPConfiguration(Charsets.UTF_8)).parse(file);
+
+      List<String> expected = Lists.newArrayList();
+      new AstWalker(visitors(expected)).walkAndVisit(tree);
+      List<String> actual = Lists.newArrayList();
+      new IterativeAstWalker(visitors(actual)).walkAndVisit(tree);
+
+      assertThat(actual).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void deep_tree() {
+    AstNode root = new AstNode(PHPGrammar.EXPRESSION, "EXPRESSION", null);
+    AstNode node = root;
+    for (int i = 0; i < 100000; i++) {
+      AstNode child = new AstNode(PHPGrammar.EXPRESSION, "EXPRESSION", null);
+      node.addChild(child);
+      node = child;
+    }
+
+    List<String> events = Lists.newArrayList();
+    RecordingVisitor visitor = new RecordingVisitor("", events);
+    visitor.subscribeTo(PHPGrammar.EXPRESSION);
+    new IterativeAstWalker(ImmutableList.of(visitor)).walkAndVisit(root);
+
+    assertThat(events).hasSize(2 * 100001 + 2);
+  }
+
+  private static List<RecordingVisitor> visitors(List<String> events) {
+    RecordingVisitor statements = new RecordingVisitor("statements", events);
+    statements.subscribeTo(PHPGrammar.STATEMENT, PHPGrammar.EXPRESSION_STATEMENT, PHPGrammar.CLASS_DECLARATION);
+    RecordingVisitor all = new RecordingVisitor("all", events);
+    all.subscribeTo(PHPGrammar.values());
+    all.subscribeTo(PHPPunctuator.values());
+    RecordingVisitor keywords = new RecordingVisitor("keywords", events);
+    keywords.subscribeTo(PHPKeyword.values());
+    keywords.subscribeTo(GenericTokenType.IDENTIFIER, GenericTokenType.EOF);
+    RecordingVisitor none = new RecordingVisitor("none", events);
+    return ImmutableList.of(statements, all, keywords, none);
+  }
+
+}
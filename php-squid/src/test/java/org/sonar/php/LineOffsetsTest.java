@@ -0,0 +1,64 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class LineOffsetsTest {
+
+  @Test
+  public void line_terminators() {
+    LineOffsets lineOffsets = new LineOffsets("a\nbc\r\nd\re");
+    assertThat(lineOffsets.getLineCount()).isEqualTo(4);
+    assertThat(lineOffsets.getStart(1)).isEqualTo(0);
+    assertThat(lineOffsets.getEnd(1)).isEqualTo(1);
+    assertThat(lineOffsets.getStart(2)).isEqualTo(2);
+    assertThat(lineOffsets.getEnd(2)).isEqualTo(4);
+    assertThat(lineOffsets.getStart(3)).isEqualTo(6);
+    assertThat(lineOffsets.getEnd(3)).isEqualTo(7);
+    assertThat(lineOffsets.getStart(4)).isEqualTo(8);
+    assertThat(lineOffsets.getEnd(4)).isEqualTo(9);
+  }
+
+  @Test
+  public void empty_last_line() {
+    LineOffsets lineOffsets = new LineOffsets("a\r\n");
+    assertThat(lineOffsets.getLineCount()).isEqualTo(2);
+    assertThat(lineOffsets.getStart(2)).isEqualTo(3);
+    assertThat(lineOffsets.getEnd(2)).isEqualTo(3);
+
+    assertThat(new LineOffsets("").getLineCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void many_lines() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      sb.append("ab\n");
+    }
+    LineOffsets lineOffsets = new LineOffsets(sb);
+    assertThat(lineOffsets.getLineCount()).isEqualTo(1001);
+    assertThat(lineOffsets.getStart(1000)).isEqualTo(2997);
+    assertThat(lineOffsets.getEnd(1000)).isEqualTo(2999);
+  }
+
+}
@@ -21,10 +21,18 @@ package org.sonar.php;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.RecognitionException;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.sonar.php.api.PHPMetric;
+import org.sonar.php.api.PhysicalLineVisitor;
 import org.sonar.squidbridge.AstScanner;
+import org.sonar.squidbridge.AstScannerExceptionHandler;
+import org.sonar.squidbridge.SquidAstVisitor;
+import org.sonar.squidbridge.api.SourceCode;
 import org.sonar.squidbridge.api.SourceFile;
 import org.sonar.squidbridge.api.SourceProject;
 import org.sonar.squidbridge.indexer.QueryByType;
@@ -33,8 +41,12 @@ import java.io.File;
 
 import static org.fest.assertions.Assertions.assertThat;
 
+@SuppressWarnings("unchecked")
 public class PHPAstScannerTest {
 
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Test
   public void files() {
     AstScanner<Grammar> scanner = PHPAstScanner.create(new PHPConfiguration(Charsets.UTF_8));
@@ -86,4 +98,126 @@ public class PHPAstScannerTest {
     SourceFile file = PHPAstScanner.scanSingleFile(new File("src/test/resources/metrics/complexity.php"));
     assertThat(file.getInt(PHPMetric.COMPLEXITY)).isEqualTo(17);
   }
+
+  @Test
+  public void compact_ast() {
+    PHPConfiguration conf = new PHPConfiguration(Charsets.UTF_8);
+    conf.setCompactAst(true);
+    File[] files = new File("src/test/resources/metrics").listFiles();
+    AstScanner<Grammar> compactScanner = PHPAstScanner.create(conf);
+    compactScanner.scanFiles(ImmutableList.copyOf(files));
+    AstScanner<Grammar> scanner = PHPAstScanner.create(new PHPConfiguration(Charsets.UTF_8));
+    scanner.scanFiles(ImmutableList.copyOf(files));
+
+    for (SourceCode sourceCode : scanner.getIndex().search(new QueryByType(SourceFile.class))) {
+      SourceFile sourceFile = (SourceFile) sourceCode;
+      SourceFile compactSourceFile = (SourceFile) compactScanner.getIndex().search(sourceFile.getKey());
+      for (PHPMetric metric : PHPMetric.values()) {
+        assertThat(compactSourceFile.getDouble(metric)).as(sourceFile.getKey() + " " + metric).isEqualTo(sourceFile.getDouble(metric));
+      }
+      assertThat(compactSourceFile.getNoSonarTagLines()).isEqualTo(sourceFile.getNoSonarTagLines());
+    }
+  }
+
+  @Test
+  public void skipped_file() throws Exception {
+    File file = temporaryFolder.newFile("large.php");
+    StringBuilder sb = new StringBuilder("<?php\n");
+    for (int i = 0; i < 100000; i++) {
+      sb.append("class A { function f() { return $a + $b; } }\n");
+    }
+    sb.append("// comment\n");
+    Files.write(sb, file, Charsets.UTF_8);
+
+    PHPConfiguration conf = new PHPConfiguration(Charsets.UTF_8);
+    conf.setParseTimeout(1);
+    AstScanner<Grammar> scanner = PHPAstScanner.create(conf);
+    scanner.scanFiles(ImmutableList.of(file));
+
+    SourceCode sourceFile = scanner.getIndex().search(new QueryByType(SourceFile.class)).iterator().next();
+    assertThat(sourceFile.getInt(PHPMetric.LINES)).isEqualTo(100003);
+    assertThat(sourceFile.getInt(PHPMetric.LINES_OF_CODE)).isEqualTo(100000);
+    assertThat(sourceFile.getInt(PHPMetric.COMMENT_LINES)).isEqualTo(1);
+    assertThat(sourceFile.getInt(PHPMetric.CLASSES)).isEqualTo(0);
+  }
+
+  @Test
+  public void deeply_nested_file() throws Exception {
+    File file = temporaryFolder.newFile("nested.php");
+    StringBuilder sb = new StringBuilder("<?php\n$x = ");
+    for (int i = 0; i < 10000; i++) {
+      sb.append("array(");
+    }
+    sb.append("1");
+    for (int i = 0; i < 10000; i++) {
+      sb.append(")");
+    }
+    sb.append(";\n// comment\n");
+    Files.write(sb, file, Charsets.UTF_8);
+
+    AstScanner<Grammar> scanner = PHPAstScanner.create(new PHPConfiguration(Charsets.UTF_8));
+    scanner.scanFiles(ImmutableList.of(file));
+
+    SourceCode sourceFile = scanner.getIndex().search(new QueryByType(SourceFile.class)).iterator().next();
+    assertThat(sourceFile.getInt(PHPMetric.LINES)).isEqualTo(4);
+    assertThat(sourceFile.getInt(PHPMetric.LINES_OF_CODE)).isEqualTo(1);
+    assertThat(sourceFile.getInt(PHPMetric.COMMENT_LINES)).isEqualTo(1);
+    assertThat(sourceFile.getInt(PHPMetric.STATEMENTS)).isEqualTo(1);
+  }
+
+  @Test
+  public void physical_lines() {
+    LineVisitor visitor = new LineVisitor();
+    SourceFile file = PHPAstScanner.scanSingleFile(new File("src/test/resources/metrics/lines.php"), visitor);
+    assertThat(visitor.lines).isEqualTo(file.getInt(PHPMetric.LINES));
+    assertThat(visitor.left).isTrue();
+  }
+
+  @Test
+  public void recognition_exceptions_handed_to_visitors() throws Exception {
+    File file = temporaryFolder.newFile("error.php");
+    Files.write("<?php\nfunction f( {\n", file, Charsets.UTF_8);
+    ErrorVisitor visitor = new ErrorVisitor();
+
+    PHPAstScanner.create(new PHPConfiguration(Charsets.UTF_8), visitor).scanFile(file);
+    assertThat(visitor.recognitionException.getLine()).isEqualTo(2);
+  }
+
+  private static class ErrorVisitor extends SquidAstVisitor<Grammar> implements AstScannerExceptionHandler {
+    private RecognitionException recognitionException;
+
+    @Override
+    public void processRecognitionException(RecognitionException e) {
+      recognitionException = e;
+    }
+
+    @Override
+    public void processException(Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class LineVisitor extends SquidAstVisitor<Grammar> implements PhysicalLineVisitor {
+    private CharSequence contents;
+    private int lines;
+    private boolean left;
+
+    @Override
+    public void visitContents(CharSequence contents) {
+      this.contents = contents;
+    }
+
+    @Override
+    public void visitLine(int line, int start, int end) {
+      assertThat(line).isEqualTo(lines + 1);
+      assertThat(end).isLessThanOrEqualTo(contents.length());
+      lines++;
+    }
+
+    @Override
+    public void leaveContents() {
+      left = true;
+    }
+  }
+
 }
@@ -0,0 +1,124 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.security.MessageDigest;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PHPSourceCacheTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void read_once() throws Exception {
+    File file = newFile("a.php", "<?php echo '\u00e9';");
+    PHPSourceCache cache = new PHPSourceCache(Charsets.UTF_8, 100);
+
+    assertThat(cache.acquire(file).toString()).isEqualTo("<?php echo '\u00e9';");
+    cache.release(file);
+    assertThat(cache.acquire(file).toString()).isEqualTo("<?php echo '\u00e9';");
+    cache.release(file);
+    assertThat(cache.getReads()).isEqualTo(1);
+  }
+
+  @Test
+  public void first_files_are_kept() throws Exception {
+    File a = newFile("a.php", "aaaa");
+    File b = newFile("b.php", "bbbb");
+    File c = newFile("c.php", "cccc");
+    PHPSourceCache cache = new PHPSourceCache(Charsets.UTF_8, 8);
+
+    cache.acquire(a);
+    cache.acquire(b);
+    cache.release(a);
+    cache.release(b);
+    cache.acquire(c);
+    cache.release(c);
+    assertThat(cache.getReads()).isEqualTo(3);
+
+    cache.acquire(a);
+    cache.acquire(b);
+    assertThat(cache.getReads()).isEqualTo(3);
+    cache.acquire(c);
+    assertThat(cache.getReads()).isEqualTo(4);
+  }
+
+  @Test
+  public void contents_in_use_are_kept() throws Exception {
+    File a = newFile("a.php", "aaaa");
+    File b = newFile("b.php", "bbbb");
+    PHPSourceCache cache = new PHPSourceCache(Charsets.UTF_8, 0);
+
+    CharSequence contents = cache.acquire(a);
+    cache.acquire(a);
+    cache.acquire(b);
+    cache.release(b);
+    cache.release(a);
+    cache.acquire(a);
+    cache.acquire(b);
+    assertThat(cache.getReads()).isEqualTo(3);
+    assertThat(contents.toString()).isEqualTo("aaaa");
+  }
+
+  @Test
+  public void digests_are_kept() throws Exception {
+    File file = newFile("a.php", "<?php echo '\u00e9';");
+    PHPSourceCache cache = new PHPSourceCache(Charsets.UTF_8, 0, true);
+
+    byte[] digest = cache.digest(file);
+    assertThat(digest).isEqualTo(MessageDigest.getInstance("SHA-1").digest(Files.toByteArray(file)));
+    cache.acquire(file);
+    cache.release(file);
+    assertThat(cache.getReads()).isEqualTo(2);
+    assertThat(cache.digest(file)).isEqualTo(digest);
+    assertThat(cache.getReads()).isEqualTo(2);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void digests_not_kept() throws Exception {
+    new PHPSourceCache(Charsets.UTF_8, 0).digest(newFile("a.php", ""));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void release_without_acquire() throws Exception {
+    new PHPSourceCache(Charsets.UTF_8, 0).release(newFile("a.php", ""));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void missing_file() {
+    new PHPSourceCache(Charsets.UTF_8, 0).acquire(new File("missing.php"));
+  }
+
+  private File newFile(String name, String contents) throws Exception {
+    File file = temporaryFolder.newFile(name);
+    Files.write(contents, file, Charsets.UTF_8);
+    return file;
+  }
+
+}
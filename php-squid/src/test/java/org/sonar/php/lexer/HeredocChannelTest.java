@@ -0,0 +1,110 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.Lexer;
+import org.junit.Test;
+import org.sonar.php.api.PHPTokenType;
+
+import java.util.List;
+
+import static com.sonar.sslr.impl.channel.RegexpChannelBuilder.regexp;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class HeredocChannelTest {
+
+  /**
+   * Regular expression previously used by {@link PHPLexer}, kept as a reference.
+   */
+  private static final String REGEXP_HEREDOC = "(?s)"
+    + "<<<\"([^\r\n'\"]++)\".*?(?:\\r\\n?+|\\n)\\1"
+    + "|<<<'([^\r\n'\"]++)'.*?(?:\\r\\n?+|\\n)\\2"
+    + "|<<<([^\r\n'\"]++).*?(?:\\r\\n?+|\\n)\\3";
+
+  private final Lexer lexer = Lexer.builder().withChannel(new HeredocChannel()).build();
+  private final Lexer regexpLexer = Lexer.builder().withChannel(regexp(PHPTokenType.HEREDOC, REGEXP_HEREDOC)).build();
+
+  @Test
+  public void heredoc() {
+    assertHeredoc("<<<EOT\nbody\nEOT", "<<<EOT\nbody\nEOT;");
+    assertHeredoc("<<<\"EOT\"\r\nbody\r\nEOT", "<<<\"EOT\"\r\nbody\r\nEOT;");
+    assertHeredoc("<<<EOT\nEOT", "<<<EOT\nEOT");
+    assertHeredoc("<<<EOT\nbody\rEOT", "<<<EOT\nbody\rEOTX");
+  }
+
+  @Test
+  public void nowdoc() {
+    assertHeredoc("<<<'EOT'\nbody $a\nEOT", "<<<'EOT'\nbody $a\nEOT;");
+  }
+
+  @Test
+  public void not_heredoc() {
+    assertNotHeredoc("<<<EOT\nbody\n EOT");
+    assertNotHeredoc("<<<\"EOT'\nbody\nEOT");
+    assertNotHeredoc("<<<'EOT\nbody\nEOT");
+    assertNotHeredoc("<<<\nEOT");
+    assertNotHeredoc("<< EOT\nEOT");
+  }
+
+  @Test
+  public void same_tokens_as_regexp() {
+    String[] sources = {"<<<EOT\nbody\nEOT;", "<<<'A'\r\nA", "<<<A B\n\nA B\n", "<<<\"A\"x\nA", "<<<EOT\r\rEOT", "<<<EOT\nbody"};
+    for (String source : sources) {
+      assertThat(values(lexer.lex(source))).as(source).isEqualTo(values(regexpLexer.lex(source)));
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void multi_megabyte_heredoc() {
+    for (int megabytes : new int[] {2, 4, 8}) {
+      StringBuilder sb = new StringBuilder("<<<EOT\n");
+      while (sb.length() < megabytes * 1024 * 1024) {
+        sb.append("EO SELECT name, value FROM settings WHERE id = 1 AND label = 'EOT'\n");
+      }
+      String heredoc = sb.append("EOT").toString();
+      String source = heredoc + ";\n";
+
+      assertThat(lexer.lex(source).get(0).getValue()).isEqualTo(heredoc);
+      assertThat(regexpLexer.lex(source).get(0).getValue()).isEqualTo(heredoc);
+    }
+  }
+
+  private void assertHeredoc(String expected, String source) {
+    Token token = lexer.lex(source).get(0);
+    assertThat(token.getType()).isEqualTo(PHPTokenType.HEREDOC);
+    assertThat(token.getValue()).isEqualTo(expected);
+  }
+
+  private void assertNotHeredoc(String source) {
+    for (Token token : lexer.lex(source)) {
+      assertThat(token.getType()).isNotEqualTo(PHPTokenType.HEREDOC);
+    }
+  }
+
+  private static String values(List<Token> tokens) {
+    StringBuilder sb = new StringBuilder();
+    for (Token token : tokens) {
+      sb.append(token.getType().getName()).append(':').append(token.getValue()).append('|');
+    }
+    return sb.toString();
+  }
+
+}
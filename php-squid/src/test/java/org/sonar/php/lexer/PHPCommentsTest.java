@@ -0,0 +1,92 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PHPCommentsTest {
+
+  @Test
+  public void contents() {
+    assertThat(PHPComments.contents("// foo").toString()).isEqualTo(" foo");
+    assertThat(PHPComments.contents("# foo").toString()).isEqualTo(" foo");
+    assertThat(PHPComments.contents("/* foo */").toString()).isEqualTo(" foo ");
+    assertThat(PHPComments.contents("/** foo */").toString()).isEqualTo("* foo ");
+    assertThat(PHPComments.contents("/**/").length()).isEqualTo(0);
+  }
+
+  @Test
+  public void lines() {
+    assertThat(lines("a\nb\r\nc\rd")).containsExactly("a", "b", "c", "d");
+    assertThat(lines("a\n\nb")).containsExactly("a", "", "b");
+    assertThat(lines("a\r\n")).containsExactly("a", "");
+    assertThat(lines("\r\r\n")).containsExactly("", "", "");
+    assertThat(lines("")).containsExactly("");
+  }
+
+  @Test
+  public void lines_of_contents() {
+    assertThat(lines(PHPComments.contents("/*\n * foo\r\n */"))).containsExactly("", " * foo", " ");
+  }
+
+  @Test
+  public void views() {
+    CharSequence line = PHPComments.lines(PHPComments.contents("/* foo\nbar baz */")).iterator().next();
+    assertThat(line.length()).isEqualTo(4);
+    assertThat(line.charAt(1)).isEqualTo('f');
+    assertThat(line.subSequence(1, 3).toString()).isEqualTo("fo");
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void view_bounds() {
+    PHPComments.contents("// foo").charAt(4);
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void no_more_lines() {
+    Iterator<CharSequence> lines = PHPComments.lines("a").iterator();
+    lines.next();
+    lines.next();
+  }
+
+  @Test
+  public void is_blank() {
+    assertThat(PHPComments.isBlank("")).isTrue();
+    assertThat(PHPComments.isBlank(" * ---- ")).isTrue();
+    assertThat(PHPComments.isBlank(" * a")).isFalse();
+    assertThat(PHPComments.isBlank("1")).isFalse();
+  }
+
+  private static List<String> lines(CharSequence text) {
+    List<String> lines = Lists.newArrayList();
+    for (CharSequence line : PHPComments.lines(text)) {
+      lines.add(line.toString());
+    }
+    return lines;
+  }
+
+}
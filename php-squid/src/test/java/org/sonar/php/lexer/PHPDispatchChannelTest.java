@@ -0,0 +1,99 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.google.common.base.Charsets;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.Trivia;
+import com.sonar.sslr.impl.Lexer;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.sonar.php.PHPConfiguration;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PHPDispatchChannelTest {
+
+  private final Lexer regexpLexer = PHPLexer.create(new PHPConfiguration(Charsets.UTF_8));
+  private final Lexer dispatchLexer = PHPLexer.create(fastLexerConfiguration());
+
+  @Test
+  public void same_tokens_as_regexp_channels_on_test_resources() {
+    Collection<File> files = FileUtils.listFiles(new File("src/test/resources"), new String[] {"php"}, true);
+    assertThat(files).isNotEmpty();
+    for (File file : files) {
+      assertSameTokens(file.getPath(), regexpLexer.lex(file), dispatchLexer.lex(file));
+    }
+  }
+
+  @Test
+  public void same_tokens_on_edge_cases() {
+    assertSameTokens("<html><?= $a ?>text<?php echo 1; ?>");
+    assertSameTokens("<?php\n$a = 0777 + 08 + 0x1Fg + 0b102 + 0B1 + 1e + 1e+ + 1.e5 + .5e-3 + 1..2 + 1.5.3 + ...;");
+    assertSameTokens("<?php\n// comment ?> html <?php # other\n /* unterminated");
+    assertSameTokens("<?php\n$a = \"esc\\\"aped\" . 'it\\'s' . `ls`;");
+    assertSameTokens("<?php\n$a = <<<\"EOT\"\nbody\r\nEOTX;\n$b = <<<'NOW'\r\nbody\rNOW;\n<<<NOPE\nbody");
+    assertSameTokens("<?php\n$$a = ${'b'}; $c->d::E; \\Foo\\bar(); IF ($a <<= $b >>= $c !== $d <> $e) {}");
+    assertSameTokens("<?php\n\u00a0\u2028$\u00e9t\u00e9 = \u00ffIdentifier\u00a0part;");
+  }
+
+  @Test
+  public void empty_file() {
+    assertSameTokens("");
+  }
+
+  private void assertSameTokens(String source) {
+    assertSameTokens(source, regexpLexer.lex(source), dispatchLexer.lex(source));
+  }
+
+  private static void assertSameTokens(String source, List<Token> expected, List<Token> actual) {
+    assertThat(actual.size()).as(source).isEqualTo(expected.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertSameToken(source, expected.get(i), actual.get(i));
+
+      List<Trivia> expectedTrivia = expected.get(i).getTrivia();
+      List<Trivia> actualTrivia = actual.get(i).getTrivia();
+      assertThat(actualTrivia.size()).as(source).isEqualTo(expectedTrivia.size());
+      for (int j = 0; j < expectedTrivia.size(); j++) {
+        assertSameToken(source, expectedTrivia.get(j).getToken(), actualTrivia.get(j).getToken());
+      }
+    }
+  }
+
+  private static void assertSameToken(String source, Token expected, Token actual) {
+    String message = source + " at " + expected.getLine() + ":" + expected.getColumn();
+    assertThat(actual.getType()).as(message).isEqualTo(expected.getType());
+    assertThat(actual.getValue()).as(message).isEqualTo(expected.getValue());
+    assertThat(actual.getOriginalValue()).as(message).isEqualTo(expected.getOriginalValue());
+    assertThat(actual.getLine()).as(message).isEqualTo(expected.getLine());
+    assertThat(actual.getColumn()).as(message).isEqualTo(expected.getColumn());
+  }
+
+  private static PHPConfiguration fastLexerConfiguration() {
+    PHPConfiguration conf = new PHPConfiguration(Charsets.UTF_8);
+    conf.setFastLexer(true);
+    return conf;
+  }
+
+}
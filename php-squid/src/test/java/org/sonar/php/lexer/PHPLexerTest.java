@@ -23,15 +23,19 @@ import com.google.common.base.Charsets;
 import com.sonar.sslr.api.GenericTokenType;
 import com.sonar.sslr.api.Token;
 import com.sonar.sslr.impl.Lexer;
+import com.sonar.sslr.impl.LexerException;
 import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import org.sonar.php.PHPConfiguration;
 import org.sonar.php.api.PHPTokenType;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.net.URI;
 import java.util.List;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
 
 public class PHPLexerTest {
 
@@ -59,4 +63,24 @@ public class PHPLexerTest {
     Token heredoc = tokens.get(122);
     assertThat(heredoc.getType()).isEqualTo(PHPTokenType.HEREDOC);
   }
+
+  @Test
+  public void lex_with_uri() throws Exception {
+    Lexer lexer = PHPLexer.create(new PHPConfiguration(Charsets.US_ASCII));
+    URI uri = new File("a.php").toURI();
+
+    List<Token> tokens = PHPLexer.lex(lexer, "<?php echo '\u00e9\ufffd';", uri);
+    assertThat(tokens.get(2).getOriginalValue()).isEqualTo("'\u00e9\ufffd'");
+    assertThat(tokens.get(2).getURI()).isEqualTo(uri);
+    assertThat(tokens.get(3).getURI()).isEqualTo(uri);
+
+    try {
+      PHPLexer.lex(lexer, "<?php \"unclosed", uri);
+      fail();
+    } catch (LexerException e) {
+      assertThat(e.getMessage()).contains(uri.toString()).excludes("unclosed");
+      assertThat(e.getCause().getMessage()).contains(uri.toString()).excludes("unclosed");
+    }
+  }
+
 }
@@ -0,0 +1,165 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.Trivia;
+import com.sonar.sslr.impl.Lexer;
+import com.sonar.sslr.impl.LexerException;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.sonar.php.PHPConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PHPStreamingLexerTest {
+
+  private static final int[] WINDOW_SIZES = {33, 64, 257, PHPStreamingLexer.DEFAULT_WINDOW_SIZE};
+
+  private final PHPConfiguration conf = new PHPConfiguration(Charsets.UTF_8);
+  private final Lexer lexer = PHPLexer.create(conf);
+
+  @Test
+  public void same_tokens_as_lexer_on_test_resources() {
+    Collection<File> files = FileUtils.listFiles(new File("src/test/resources"), new String[] {"php"}, true);
+    assertThat(files).isNotEmpty();
+    for (int windowSize : WINDOW_SIZES) {
+      PHPStreamingLexer streamingLexer = new PHPStreamingLexer(conf, windowSize);
+      for (File file : files) {
+        Collector collector = new Collector();
+        streamingLexer.lex(file, collector);
+        assertSameTokens(file.getPath() + " with a window of " + windowSize, lexer.lex(file), collector.tokens);
+      }
+    }
+  }
+
+  @Test
+  public void tokens_larger_than_window() throws IOException {
+    StringBuilder sb = new StringBuilder("<?php\n$a = <<<EOT\n");
+    for (int i = 0; i < 1000; i++) {
+      sb.append("line ").append(i).append(" of a heredoc\r\n");
+    }
+    sb.append("EOT;\n/* ");
+    for (int i = 0; i < 1000; i++) {
+      sb.append("comment ");
+    }
+    sb.append("*/ $b = 'string ").append(sb.length()).append("';");
+    String source = sb.toString();
+
+    for (int windowSize : WINDOW_SIZES) {
+      assertSameTokens(source, windowSize);
+    }
+  }
+
+  @Test
+  public void edge_cases() throws IOException {
+    String[] sources = {
+      "",
+      "<html><?= $a ?>text<?php echo 1; ?>",
+      "<?php\n$a = 0777 + 0x1Fg + 1e+ + 1.e5 + .5e-3 + 1..2 + ...;",
+      "<?php\n// comment ?> html <?php # other\n /* unterminated",
+      "<?php\r\n$a = <<<\"EOT\"\nbody\r\nEOTX;\n<<<NOPE\nbody",
+      "<?php\n\u00a0\u2028$\u00e9t\u00e9 = \u00ffIdentifier\u00a0part;\r"
+    };
+    for (String source : sources) {
+      for (int windowSize : WINDOW_SIZES) {
+        assertSameTokens(source, windowSize);
+      }
+    }
+  }
+
+  @Test
+  public void trivia_are_visited_before_their_token() throws IOException {
+    final List<String> events = Lists.newArrayList();
+    new PHPStreamingLexer(conf).lex(new StringReader("<?php /* a */ // b\n$c;"), URI.create("tests://unittest"), new PHPTokenVisitor() {
+      public void visitTrivia(Trivia trivia) {
+        events.add(trivia.getToken().getOriginalValue());
+      }
+
+      public void visitToken(Token token) {
+        events.add(token.getOriginalValue() + token.getTrivia().size());
+      }
+    });
+    assertThat(events).containsExactly("<?php0", "/* a */", "// b", "$c2", ";0", "EOF0");
+  }
+
+  @Test(expected = LexerException.class)
+  public void unable_to_lex() throws IOException {
+    new PHPStreamingLexer(conf).lex(new StringReader("<?php 'unterminated"), URI.create("tests://unittest"), new Collector());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void window_too_small() {
+    new PHPStreamingLexer(conf, 2 * PHPStreamingLexer.LOOKAHEAD);
+  }
+
+  private void assertSameTokens(String source, int windowSize) throws IOException {
+    Collector collector = new Collector();
+    new PHPStreamingLexer(conf, windowSize).lex(new StringReader(source), URI.create("tests://unittest"), collector);
+    assertSameTokens(source + " with a window of " + windowSize, lexer.lex(source), collector.tokens);
+  }
+
+  private static void assertSameTokens(String message, List<Token> expected, List<Token> actual) {
+    assertThat(actual.size()).as(message).isEqualTo(expected.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertSameToken(message, expected.get(i), actual.get(i));
+
+      List<Trivia> expectedTrivia = expected.get(i).getTrivia();
+      List<Trivia> actualTrivia = actual.get(i).getTrivia();
+      assertThat(actualTrivia.size()).as(message).isEqualTo(expectedTrivia.size());
+      for (int j = 0; j < expectedTrivia.size(); j++) {
+        assertSameToken(message, expectedTrivia.get(j).getToken(), actualTrivia.get(j).getToken());
+      }
+    }
+  }
+
+  private static void assertSameToken(String message, Token expected, Token actual) {
+    String at = message + " at " + expected.getLine() + ":" + expected.getColumn();
+    assertThat(actual.getType()).as(at).isEqualTo(expected.getType());
+    assertThat(actual.getValue()).as(at).isEqualTo(expected.getValue());
+    assertThat(actual.getOriginalValue()).as(at).isEqualTo(expected.getOriginalValue());
+    assertThat(actual.getLine()).as(at).isEqualTo(expected.getLine());
+    assertThat(actual.getColumn()).as(at).isEqualTo(expected.getColumn());
+  }
+
+  private static class Collector implements PHPTokenVisitor {
+
+    private final List<Token> tokens = Lists.newArrayList();
+
+    public void visitTrivia(Trivia trivia) {
+      // attached to the next token
+    }
+
+    public void visitToken(Token token) {
+      tokens.add(token);
+    }
+
+  }
+
+}
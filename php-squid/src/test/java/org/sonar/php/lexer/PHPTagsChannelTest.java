@@ -0,0 +1,103 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.google.common.base.Charsets;
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.Lexer;
+import com.sonar.sslr.impl.channel.RegexpChannel;
+import org.junit.Test;
+import org.sonar.php.PHPConfiguration;
+import org.sonar.sslr.channel.Channel;
+import org.sonar.sslr.channel.CodeReader;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PHPTagsChannelTest {
+
+  private final Lexer lexer = PHPLexer.create(new PHPConfiguration(Charsets.UTF_8));
+
+  @Test
+  public void file_opening_tag() {
+    assertToken(lexer.lex("<?php $a;").get(0), PHPTagsChannel.FILE_OPENING_TAG, "<?php");
+    assertToken(lexer.lex("<html>\n<?= $a;").get(0), PHPTagsChannel.FILE_OPENING_TAG, "<html>\n<?=");
+    assertToken(lexer.lex("<? $a;").get(0), PHPTagsChannel.FILE_OPENING_TAG, "<?");
+    assertToken(lexer.lex("<?PHP $a;").get(0), PHPTagsChannel.FILE_OPENING_TAG, "<?");
+    assertToken(lexer.lex("<html></html>").get(0), PHPTagsChannel.FILE_OPENING_TAG, "<html></html>");
+  }
+
+  @Test
+  public void inline_html() {
+    List<Token> tokens = lexer.lex("<?php $a ?><p>\n</p><?php $b ?>end");
+    assertToken(tokens.get(2), PHPTagsChannel.INLINE_HTML, "?><p>\n</p><?php");
+    assertToken(tokens.get(4), PHPTagsChannel.INLINE_HTML, "?>end");
+    assertThat(tokens.get(5).getType()).isEqualTo(GenericTokenType.EOF);
+  }
+
+  @Test
+  public void large_template() {
+    StringBuilder sb = new StringBuilder("<html>\n<body>\n");
+    while (sb.length() < 4 * 1024 * 1024) {
+      sb.append("<div class=\"row\"><span>?</span><p>Some <b>text</b> with a < sign</p></div>\n<?= $title ?>\n");
+    }
+    String template = sb.toString();
+
+    Lexer regexpLexer = Lexer.builder()
+      .withChannel(new RegexpTagsChannel())
+      .withChannel(new PHPDispatchChannel())
+      .build();
+    List<Token> expected = regexpLexer.lex(template);
+    List<Token> actual = lexer.lex(template);
+    assertThat(actual.size()).isEqualTo(expected.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(actual.get(i).getType()).isEqualTo(expected.get(i).getType());
+      assertThat(actual.get(i).getValue()).isEqualTo(expected.get(i).getValue());
+    }
+  }
+
+  private static void assertToken(Token token, Object type, String value) {
+    assertThat(token.getType()).isEqualTo(type);
+    assertThat(token.getValue()).isEqualTo(value);
+  }
+
+  /**
+   * Regular expressions previously used by {@link PHPTagsChannel}, kept as a reference.
+   */
+  private static class RegexpTagsChannel extends Channel<Lexer> {
+    private static final String START = "(?:(?!" + PHPTagsChannel.OPENING + ")[\\s\\S])*+(" + PHPTagsChannel.OPENING + ")?+";
+    private static final String END = PHPTagsChannel.CLOSING + START;
+
+    private final Channel<Lexer> start = new RegexpChannel(PHPTagsChannel.FILE_OPENING_TAG, START);
+    private final Channel<Lexer> end = new RegexpChannel(PHPTagsChannel.INLINE_HTML, END);
+
+    @Override
+    public boolean consume(CodeReader code, Lexer lexer) {
+      if ((code.getLinePosition() == 1) && (code.getColumnPosition() == 0)) {
+        return start.consume(code, lexer);
+      } else {
+        return end.consume(code, lexer);
+      }
+    }
+  }
+
+}
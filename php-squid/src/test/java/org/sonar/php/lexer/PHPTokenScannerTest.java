@@ -0,0 +1,91 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.lexer;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.Trivia;
+import org.junit.Test;
+import org.sonar.php.PHPConfiguration;
+
+import java.io.File;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PHPTokenScannerTest {
+
+  private final PHPTokenScanner scanner = new PHPTokenScanner(new PHPConfiguration(Charsets.UTF_8));
+
+  @Test
+  public void same_tokens_as_lexer() {
+    File file = new File("src/test/resources/lexer/melting-pot-for-lexing.php");
+    List<Token> expected = PHPLexer.create(new PHPConfiguration(Charsets.UTF_8)).lex(file);
+
+    Collector collector = new Collector();
+    scanner.scan(file, collector);
+
+    assertThat(collector.tokens).hasSize(expected.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(collector.tokens.get(i).getType()).isEqualTo(expected.get(i).getType());
+      assertThat(collector.tokens.get(i).getOriginalValue()).isEqualTo(expected.get(i).getOriginalValue());
+      assertThat(collector.tokens.get(i).getLine()).isEqualTo(expected.get(i).getLine());
+    }
+  }
+
+  @Test
+  public void trivia_before_its_token() {
+    Collector collector = new Collector();
+    scanner.scan("<?php // first\n$a; /* second */", collector);
+
+    assertThat(collector.events).containsExactly("<?php", "// first", "$a", ";", "/* second */", "EOF");
+    assertThat(collector.tokens.get(collector.tokens.size() - 1).getType()).isEqualTo(GenericTokenType.EOF);
+  }
+
+  @Test
+  public void reusable() {
+    Collector first = new Collector();
+    scanner.scan("<?php $a;", first);
+    Collector second = new Collector();
+    scanner.scan("<?php $b;", second);
+
+    assertThat(first.events).containsExactly("<?php", "$a", ";", "EOF");
+    assertThat(second.events).containsExactly("<?php", "$b", ";", "EOF");
+  }
+
+  private static class Collector implements PHPTokenVisitor {
+
+    private final List<Token> tokens = Lists.newArrayList();
+    private final List<String> events = Lists.newArrayList();
+
+    public void visitTrivia(Trivia trivia) {
+      events.add(trivia.getToken().getOriginalValue());
+    }
+
+    public void visitToken(Token token) {
+      tokens.add(token);
+      events.add(token.getOriginalValue());
+    }
+
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.metrics;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+import org.sonar.php.PHPAstScanner;
+import org.sonar.php.PHPConfiguration;
+import org.sonar.php.api.PHPMetric;
+import org.sonar.php.lexer.PHPStreamingLexer;
+import org.sonar.squidbridge.api.SourceFile;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class TokenMetricsVisitorTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void same_metrics_as_ast_scanner() {
+    for (String name : new String[] {"comments.php", "lines.php", "lines_of_code.php", "complexity.php"}) {
+      File file = new File("src/test/resources/metrics/" + name);
+      SourceFile sourceFile = PHPAstScanner.scanSingleFile(file);
+
+      TokenMetricsVisitor visitor = new TokenMetricsVisitor(false);
+      new PHPStreamingLexer(new PHPConfiguration(Charsets.UTF_8)).lex(file, visitor);
+
+      assertThat(visitor.getLines()).as(name).isEqualTo(sourceFile.getInt(PHPMetric.LINES));
+      assertThat(visitor.getLinesOfCode()).as(name).isEqualTo(sourceFile.getInt(PHPMetric.LINES_OF_CODE));
+      assertThat(visitor.getCommentLines()).as(name).isEqualTo(sourceFile.getInt(PHPMetric.COMMENT_LINES));
+      assertThat(visitor.getNoSonarLines()).as(name).isEqualTo(sourceFile.getNoSonarTagLines());
+    }
+  }
+
+  @Test
+  public void comments() {
+    TokenMetricsVisitor visitor = new TokenMetricsVisitor(false);
+    new PHPStreamingLexer(new PHPConfiguration(Charsets.UTF_8)).lex(new File("src/test/resources/metrics/comments.php"), visitor);
+
+    assertThat(visitor.getCommentLines()).isEqualTo(3);
+    assertThat(visitor.getNoSonarLines()).containsOnly(14);
+  }
+
+}
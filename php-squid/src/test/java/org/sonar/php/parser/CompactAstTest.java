@@ -0,0 +1,275 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.parser;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.AstNodeType;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.Parser;
+import org.junit.Test;
+import org.sonar.php.PHPConfiguration;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CompactAstTest {
+
+  private static final File[] FILES = new File("src/test/resources/metrics").listFiles();
+
+  private final Parser<Grammar> parser = PHPParser.create(new PHPConfiguration(Charsets.UTF_8));
+
+  @Test
+  public void navigation() {
+    AstNode root = parser.parse("<?php $a = 1; f($b);");
+    CompactAst ast = CompactAst.create(root);
+
+    assertThat(ast.size()).isEqualTo(count(root));
+    assertThat(ast.getType(0)).isSameAs(root.getType());
+    assertThat(ast.getParent(0)).isEqualTo(CompactAst.NONE);
+    assertThat(ast.getToken(0)).isSameAs(root.getToken());
+    assertThat(ast.getEnd(0)).isEqualTo(ast.size());
+
+    int child = ast.getFirstChild(0);
+    assertThat(child).isEqualTo(1);
+    assertThat(ast.getParent(child)).isEqualTo(0);
+    assertThat(ast.getToken(child)).isSameAs(root.getFirstChild().getToken());
+    assertThat(ast.getNextSibling(child)).isEqualTo(ast.getEnd(child));
+
+    int statement = 0;
+    while (!ast.is(statement, PHPGrammar.EXPRESSION_STATEMENT)) {
+      statement++;
+    }
+    assertThat(ast.getToken(statement).getValue()).isEqualTo("$a");
+    statement = ast.getEnd(statement);
+    while (!ast.is(statement, PHPGrammar.EXPRESSION_STATEMENT)) {
+      statement++;
+    }
+    assertThat(ast.getToken(statement).getOriginalValue()).isEqualTo("f");
+  }
+
+  @Test
+  public void same_tree() {
+    for (File file : FILES) {
+      AstNode root = parser.parse(file);
+      assertSameTree(CompactAst.create(root).getNode(0), root);
+    }
+  }
+
+  @Test
+  public void same_navigation() {
+    for (File file : FILES) {
+      AstNode root = parser.parse(file);
+      assertSameNavigation(CompactAst.create(root).getNode(0), root);
+    }
+  }
+
+  @Test
+  public void sub_tree() {
+    AstNode root = parser.parse("<?php if ($a) { f($b); } g();");
+    CompactAst ast = CompactAst.create(root);
+    int statement = 0;
+    while (!ast.is(statement, PHPGrammar.IF_STATEMENT)) {
+      statement++;
+    }
+
+    AstNode node = ast.getNode(statement);
+    assertSameTree(node, root.getFirstDescendant(PHPGrammar.IF_STATEMENT));
+    assertThat(node.getParent().getType()).isSameAs(PHPGrammar.STATEMENT);
+  }
+
+  @Test
+  public void views() {
+    CompactAst ast = CompactAst.create(parser.parse("<?php $a = 1;"));
+    AstNode view = ast.getNode(1);
+
+    assertThat(view).isEqualTo(ast.getNode(1));
+    assertThat(view).isNotSameAs(ast.getNode(1));
+    assertThat(view.hashCode()).isEqualTo(ast.getNode(1).hashCode());
+    assertThat(view).isNotEqualTo(ast.getNode(2));
+    assertThat(view.getParent()).isEqualTo(ast.getNode(0));
+    assertThat(view.getChildren()).isSameAs(view.getChildren());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void views_cannot_be_modified() {
+    CompactAst ast = CompactAst.create(parser.parse("<?php $a = 1;"));
+    ast.getNode(0).addChild(ast.getNode(1));
+  }
+
+  /**
+   * Sizes of the nodes, without the tokens, types and names which both trees share, counted from the objects and
+   * arrays they are made of rather than measured on the heap.
+   */
+  @Test
+  public void heap_size() {
+    long astNodesSize = 0;
+    long compactSize = 0;
+    for (File file : FILES) {
+      AstNode root = parser.parse(file);
+      HeapModel astNodes = new HeapModel(root);
+      HeapModel compact = new HeapModel(CompactAst.create(root));
+
+      assertThat(astNodes.objects).isGreaterThan(count(root));
+      assertThat(compact.objects).isEqualTo(9);
+      astNodesSize += astNodes.bytes;
+      compactSize += compact.bytes;
+    }
+    assertThat(astNodesSize).isGreaterThanOrEqualTo(3 * compactSize);
+  }
+
+  private static int count(AstNode node) {
+    int count = 1;
+    for (AstNode child : node.getChildren()) {
+      count += count(child);
+    }
+    return count;
+  }
+
+  private static void assertSameNavigation(AstNode actual, AstNode expected) {
+    assertSameNode(actual.getParent(), expected.getParent());
+    assertSameNode(actual.getNextSibling(), expected.getNextSibling());
+    assertSameNode(actual.getPreviousSibling(), expected.getPreviousSibling());
+    assertSameNode(actual.getNextAstNode(), expected.getNextAstNode());
+    assertSameNode(actual.getPreviousAstNode(), expected.getPreviousAstNode());
+    assertSameNode(actual.getFirstChild(), expected.getFirstChild());
+    assertSameNode(actual.getLastChild(), expected.getLastChild());
+    assertSameNode(actual.getFirstChild(PHPGrammar.STATEMENT), expected.getFirstChild(PHPGrammar.STATEMENT));
+    assertSameNode(actual.getLastChild(PHPGrammar.STATEMENT), expected.getLastChild(PHPGrammar.STATEMENT));
+    assertSameNode(actual.getFirstDescendant(PHPGrammar.VARIABLE), expected.getFirstDescendant(PHPGrammar.VARIABLE));
+    assertSameNode(actual.getFirstAncestor(PHPGrammar.STATEMENT), expected.getFirstAncestor(PHPGrammar.STATEMENT));
+    assertThat(actual.hasParent(PHPGrammar.STATEMENT)).isEqualTo(expected.hasParent(PHPGrammar.STATEMENT));
+    assertThat(actual.getChildren(PHPGrammar.STATEMENT).size()).isEqualTo(expected.getChildren(PHPGrammar.STATEMENT).size());
+    assertThat(actual.getDescendants(PHPGrammar.VARIABLE).size()).isEqualTo(expected.getDescendants(PHPGrammar.VARIABLE).size());
+    assertThat(actual.getTokens()).isEqualTo(expected.getTokens());
+    assertThat(actual.getLastToken()).isSameAs(expected.getLastToken());
+    for (int i = 0; i < expected.getNumberOfChildren(); i++) {
+      assertSameNavigation(actual.getChild(i), expected.getChild(i));
+    }
+  }
+
+  private static void assertSameNode(AstNode actual, AstNode expected) {
+    if (expected == null) {
+      assertThat(actual).isNull();
+    } else {
+      assertThat(actual.getType()).isSameAs(expected.getType());
+      assertThat(actual.getToken()).isSameAs(expected.getToken());
+      assertThat(actual.getNumberOfChildren()).isEqualTo(expected.getNumberOfChildren());
+    }
+  }
+
+  private static void assertSameTree(AstNode actual, AstNode expected) {
+    assertThat(actual.getType()).isSameAs(expected.getType());
+    assertThat(actual.getName()).isEqualTo(expected.getName());
+    assertThat(actual.getToken()).isSameAs(expected.getToken());
+    assertThat(actual.getNumberOfChildren()).isEqualTo(expected.getNumberOfChildren());
+    for (int i = 0; i < expected.getNumberOfChildren(); i++) {
+      assertSameTree(actual.getChildren().get(i), expected.getChildren().get(i));
+    }
+  }
+
+  /**
+   * Objects and arrays reachable from a root, with sizes computed as a 64-bit JVM with compressed references lays them
+   * out: a header of 12 bytes for objects and 16 for arrays, 4 bytes per reference, rounded up to 8 bytes. Tokens,
+   * types of nodes and strings are not counted.
+   */
+  private static class HeapModel {
+    private final Set<Object> visited = Sets.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private int objects;
+    private long bytes;
+
+    HeapModel(Object root) {
+      Deque<Object> stack = new ArrayDeque<Object>();
+      stack.push(root);
+      while (!stack.isEmpty()) {
+        Object object = stack.pop();
+        if (object instanceof Token || object instanceof AstNodeType || object instanceof String || !visited.add(object)) {
+          continue;
+        }
+        objects++;
+        Class<?> type = object.getClass();
+        if (type.isArray()) {
+          int length = Array.getLength(object);
+          bytes += align(16 + length * (long) size(type.getComponentType()));
+          if (!type.getComponentType().isPrimitive()) {
+            for (int i = 0; i < length; i++) {
+              push(stack, Array.get(object, i));
+            }
+          }
+        } else {
+          long size = 12;
+          for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+              if (!Modifier.isStatic(field.getModifiers())) {
+                size += size(field.getType());
+                push(stack, value(field, object));
+              }
+            }
+          }
+          bytes += align(size);
+        }
+      }
+    }
+
+    private static void push(Deque<Object> stack, Object object) {
+      if (object != null) {
+        stack.push(object);
+      }
+    }
+
+    private static Object value(Field field, Object object) {
+      if (field.getType().isPrimitive()) {
+        return null;
+      }
+      try {
+        field.setAccessible(true);
+        return field.get(object);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    private static int size(Class<?> type) {
+      if (type == long.class || type == double.class) {
+        return 8;
+      } else if (type == short.class || type == char.class) {
+        return 2;
+      } else if (type == byte.class || type == boolean.class) {
+        return 1;
+      }
+      return 4;
+    }
+
+    private static long align(long size) {
+      return (size + 7) / 8 * 8;
+    }
+  }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.parser;
+
+import com.google.common.base.Charsets;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.RecognitionException;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.Lexer;
+import com.sonar.sslr.impl.Parser;
+import org.junit.Test;
+import org.sonar.php.PHPConfiguration;
+import org.sonar.php.lexer.CancellationChannel;
+import org.sonar.php.lexer.PHPLexer;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class CompiledParserTest {
+
+  private static final File[] FILES = new File("src/test/resources/metrics").listFiles();
+
+  private final Lexer lexer = PHPLexer.create(new PHPConfiguration(Charsets.UTF_8));
+  private final Parser<Grammar> parser = PHPParser.create(new PHPConfiguration(Charsets.UTF_8));
+  private final Parser<Grammar> sslrParser = Parser.builder(parser.getGrammar()).build();
+
+  @Test
+  public void sslr_version_is_supported() {
+    assertThat(CompiledParser.sslrVersion()).isEqualTo(CompiledParser.SUPPORTED_SSLR_VERSION);
+    assertThat(CompiledParser.isSupported()).isTrue();
+  }
+
+  @Test
+  public void same_tree_as_sslr_parser() {
+    for (File file : FILES) {
+      List<Token> tokens = lexer.lex(file);
+      assertSameTree(parser.parse(tokens), sslrParser.parse(tokens));
+    }
+  }
+
+  @Test
+  public void same_error_as_sslr_parser() {
+    List<Token> tokens = lexer.lex("<?php\n$a = ;");
+    try {
+      parser.parse(tokens);
+      fail();
+    } catch (RecognitionException e) {
+      try {
+        sslrParser.parse(tokens);
+        fail();
+      } catch (RecognitionException expected) {
+        assertThat(e.getLine()).isEqualTo(expected.getLine()).isEqualTo(2);
+        assertThat(e.getMessage()).isEqualTo(expected.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void same_tree_and_error_when_cancellable() {
+    CompiledParser cancellableParser = new CompiledParser(parser.getGrammar(), lexer, new CancellationChannel());
+    for (File file : FILES) {
+      List<Token> tokens = lexer.lex(file);
+      assertSameTree(cancellableParser.parse(tokens), sslrParser.parse(tokens));
+    }
+
+    try {
+      cancellableParser.parse("<?php\n$a = ;");
+      fail();
+    } catch (RecognitionException e) {
+      assertThat(e.getMessage()).isEqualTo(parseError(sslrParser, "<?php\n$a = ;"));
+    }
+  }
+
+  @Test(expected = CancellationException.class)
+  public void cancelled_parse() {
+    CancellationChannel cancellation = new CancellationChannel();
+    CompiledParser cancellableParser = new CompiledParser(parser.getGrammar(), lexer, cancellation);
+    List<Token> tokens = lexer.lex("<?php $a = 1;");
+    cancellation.cancel();
+    cancellableParser.parse(tokens);
+  }
+
+  @Test
+  public void deeply_nested_code() {
+    StringBuilder sb = new StringBuilder("<?php $x = ");
+    for (int i = 0; i < 10000; i++) {
+      sb.append("array(");
+    }
+    sb.append("1");
+    for (int i = 0; i < 10000; i++) {
+      sb.append(")");
+    }
+    List<Token> tokens = lexer.lex(sb.append(";").toString());
+
+    try {
+      sslrParser.parse(tokens);
+      fail();
+    } catch (StackOverflowError e) {
+      // SSLR creates the AstNodes by recursion
+    }
+
+    int arrays = 0;
+    Deque<AstNode> stack = new ArrayDeque<AstNode>();
+    stack.push(parser.parse(tokens));
+    while (!stack.isEmpty()) {
+      AstNode node = stack.pop();
+      arrays += node.is(PHPGrammar.COMBINED_SCALAR) ? 1 : 0;
+      for (AstNode child : node.getChildren()) {
+        stack.push(child);
+      }
+    }
+    assertThat(arrays).isEqualTo(10000);
+  }
+
+  @Test
+  public void root_rule_change() {
+    assertThat(parser.parse("<?php $a;").is(PHPGrammar.COMPILATION_UNIT)).isTrue();
+
+    List<Token> tokens = lexer.lex("<?php { f(); }");
+    parser.setRootRule(parser.getGrammar().rule(PHPGrammar.BLOCK));
+    AstNode block = parser.parse(tokens.subList(1, tokens.size()));
+    assertThat(block.is(PHPGrammar.BLOCK)).isTrue();
+    assertThat(block.getFirstDescendant(PHPGrammar.FUNCTION_CALL_PARAMETER_LIST)).isNotNull();
+  }
+
+  private String parseError(Parser<Grammar> parser, String source) {
+    try {
+      parser.parse(lexer.lex(source));
+      throw new IllegalStateException();
+    } catch (RecognitionException e) {
+      return e.getMessage();
+    }
+  }
+
+  private static void assertSameTree(AstNode actual, AstNode expected) {
+    assertThat(actual.getType()).isSameAs(expected.getType());
+    assertThat(actual.getName()).isEqualTo(expected.getName());
+    assertThat(actual.getToken()).isSameAs(expected.getToken());
+    assertThat(actual.getNumberOfChildren()).isEqualTo(expected.getNumberOfChildren());
+    for (int i = 0; i < expected.getNumberOfChildren(); i++) {
+      assertSameTree(actual.getChildren().get(i), expected.getChildren().get(i));
+    }
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.parser;
+
+import com.google.common.base.Charsets;
+import com.sonar.sslr.api.RecognitionException;
+import org.junit.Test;
+import org.sonar.php.PHPConfiguration;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class InstrumentedParserTest {
+
+  private final InstrumentedParser parser = PHPParser.createInstrumented(new PHPConfiguration(Charsets.UTF_8));
+
+  @Test
+  public void rules() {
+    parser.parse("<?php $a = 1; f($b, $c);");
+
+    assertThat(parser.getFiles()).isEqualTo(1);
+    assertThat(parser.getCalls("COMPILATION_UNIT")).isEqualTo(0);
+    assertThat(parser.getInvocations("COMPILATION_UNIT")).isEqualTo(1);
+    assertThat(parser.getMatches("COMPILATION_UNIT")).isEqualTo(1);
+    assertThat(parser.getTokens("COMPILATION_UNIT")).isEqualTo(13);
+
+    assertThat(parser.getCalls("EXPRESSION_STATEMENT")).isEqualTo(3);
+    assertThat(parser.getInvocations("EXPRESSION_STATEMENT")).isEqualTo(3);
+    assertThat(parser.getMatches("EXPRESSION_STATEMENT")).isEqualTo(2);
+    assertThat(parser.getBacktracks("EXPRESSION_STATEMENT")).isEqualTo(1);
+    assertThat(parser.getTokens("EXPRESSION_STATEMENT")).isEqualTo(11);
+
+    assertThat(parser.getInvocations("DIMENSIONAL_OFFSET")).isEqualTo(10);
+    assertThat(parser.getBacktracks("DIMENSIONAL_OFFSET")).isEqualTo(10);
+    assertThat(parser.getMatches("DIMENSIONAL_OFFSET")).isEqualTo(0);
+
+    assertThat(parser.getCalls("ADDITIVE_EXPR")).isGreaterThan(0);
+    assertThat(parser.getMatches("ADDITIVE_EXPR")).isEqualTo(parser.getInvocations("ADDITIVE_EXPR") - parser.getBacktracks("ADDITIVE_EXPR"));
+    assertThat(parser.getCalls("UNKNOWN_RULE")).isEqualTo(0);
+  }
+
+  @Test
+  public void memoized_calls() {
+    parser.parse("<?php $a = 1; f($b, $c);");
+
+    assertThat(parser.getCalls("VARIABLE")).isEqualTo(9);
+    assertThat(parser.getInvocations("VARIABLE")).isEqualTo(8);
+  }
+
+  @Test
+  public void json() {
+    parser.parse(new File("src/test/resources/metrics/classes.php"));
+    parser.parse("<?php echo 1;");
+
+    String json = parser.toJson();
+    assertThat(json).startsWith("{\n  \"files\": 2,\n  \"failures\": 0,\n");
+    assertThat(json).contains("\"lexTimeMs\": ");
+    assertThat(json).contains("\"slowestFile\": {\"name\": ");
+    assertThat(json).contains("{\"rule\": \"COMPILATION_UNIT\", \"calls\": 0, \"invocations\": 2, \"matches\": 2, \"backtracks\": 0, ");
+    assertThat(json).contains("{\"rule\": \"ECHO_STATEMENT\", \"calls\": ");
+    assertThat(json).contains(", \"selfTimeMs\": ");
+  }
+
+  @Test
+  public void failures() {
+    try {
+      parser.parse("<?php $a = ;");
+    } catch (RecognitionException e) {
+      // expected
+    }
+
+    assertThat(parser.toJson()).contains("\"failures\": 1,");
+    assertThat(parser.getInvocations("COMPILATION_UNIT")).isEqualTo(1);
+    assertThat(parser.getMatches("COMPILATION_UNIT")).isEqualTo(0);
+    assertThat(parser.getBacktracks("COMPILATION_UNIT")).isEqualTo(1);
+  }
+
+  @Test
+  public void reset() {
+    parser.parse("<?php $a = 1;");
+    parser.reset();
+
+    assertThat(parser.getFiles()).isEqualTo(0);
+    assertThat(parser.getMatches("COMPILATION_UNIT")).isEqualTo(0);
+    assertThat(parser.toJson()).isEqualTo("{\n"
+      + "  \"files\": 0,\n"
+      + "  \"failures\": 0,\n"
+      + "  \"tokens\": 0,\n"
+      + "  \"lexTimeMs\": 0.000,\n"
+      + "  \"parseTimeMs\": 0.000,\n"
+      + "  \"rules\": []\n"
+      + "}\n");
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.parser;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.RecognitionException;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.Parser;
+import org.junit.Test;
+import org.sonar.php.PHPConfiguration;
+import org.sonar.php.lexer.PHPLexer;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PHPDeclarationParserTest {
+
+  private static final String SOURCE = "<?php\n"
+    + "function f($a = array(1)) { if ($a) { return \"{$a}\"; } }\n"
+    + "abstract class A {\n"
+    + "  abstract function g();\n"
+    + "  public function &h() { $b = ${'c'}; function i() { } }\n"
+    + "}\n"
+    + "$j = function () { return 1; };\n";
+
+  private final PHPConfiguration conf = new PHPConfiguration(Charsets.UTF_8);
+  private final PHPDeclarationParser parser = PHPParser.createDeclarationParser(conf);
+  private final Parser<Grammar> fullParser = PHPParser.create(conf);
+
+  @Test
+  public void declarations() {
+    AstNode root = parser.parse(SOURCE);
+
+    assertThat(root.getDescendants(PHPGrammar.FUNCTION_DECLARATION)).hasSize(1);
+    assertThat(root.getDescendants(PHPGrammar.METHOD_DECLARATION)).hasSize(2);
+    assertThat(root.getDescendants(PHPGrammar.FUNCTION_EXPRESSION)).hasSize(1);
+    assertThat(root.getDescendants(PHPGrammar.RETURN_STATEMENT)).hasSize(1);
+    assertThat(root.getDescendants(PHPGrammar.IF_STATEMENT)).isEmpty();
+
+    List<AstNode> bodies = root.getDescendants(PHPDeclarationParser.UNPARSED_BODY);
+    assertThat(bodies).hasSize(2);
+    assertThat(bodies.get(0).getParent().is(PHPGrammar.FUNCTION_DECLARATION)).isTrue();
+    assertThat(bodies.get(1).getParent().is(PHPGrammar.METHOD_BODY)).isTrue();
+    assertThat(bodies.get(1).getTokenLine()).isEqualTo(5);
+  }
+
+  @Test
+  public void parse_body() {
+    AstNode root = parser.parse(SOURCE);
+    List<AstNode> bodies = root.getDescendants(PHPDeclarationParser.UNPARSED_BODY);
+    List<AstNode> blocks = fullParser.parse(SOURCE).getDescendants(PHPGrammar.BLOCK);
+
+    AstNode body = parser.parseBody(bodies.get(0));
+    assertThat(body.is(PHPGrammar.BLOCK)).isTrue();
+    assertThat(body.getDescendants(PHPGrammar.IF_STATEMENT)).hasSize(1);
+    assertThat(values(body.getTokens())).isEqualTo(values(blocks.get(0).getTokens()));
+
+    body = parser.parseBody(bodies.get(1));
+    assertThat(body.getDescendants(PHPGrammar.FUNCTION_DECLARATION)).hasSize(1);
+    assertThat(body.getTokenValue()).isEqualTo("{");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parse_body_of_other_file() {
+    AstNode body = parser.parse(SOURCE).getFirstDescendant(PHPDeclarationParser.UNPARSED_BODY);
+    parser.parse(SOURCE);
+    parser.parseBody(body);
+  }
+
+  @Test
+  public void unmatched_braces() {
+    List<Token> tokens = PHPLexer.create(conf).lex("<?php function f() { if (true) { ");
+    Map<Token, List<Token>> bodies = Maps.newHashMap();
+
+    assertThat(PHPDeclarationParser.skipBodies(tokens, bodies)).isEqualTo(tokens);
+    assertThat(bodies).isEmpty();
+  }
+
+  @Test(expected = RecognitionException.class)
+  public void shared_grammar_has_no_unparsed_body() {
+    List<Token> tokens = PHPLexer.create(conf).lex("<?php function f() { return 1; }");
+    List<Token> skipped = PHPDeclarationParser.skipBodies(tokens, Maps.<Token, List<Token>>newHashMap());
+    assertThat(skipped.size()).isLessThan(tokens.size());
+
+    fullParser.parse(skipped);
+  }
+
+  @Test
+  public void same_declarations() {
+    for (File file : new File("src/test/resources/metrics").listFiles()) {
+      AstNode root = parser.parse(file);
+      AstNode fullRoot = fullParser.parse(file);
+      assertThat(root.getDescendants(PHPGrammar.CLASS_DECLARATION).size()).isEqualTo(fullRoot.getDescendants(PHPGrammar.CLASS_DECLARATION).size());
+      assertThat(root.getDescendants(PHPGrammar.METHOD_DECLARATION).size()).isEqualTo(fullRoot.getDescendants(PHPGrammar.METHOD_DECLARATION).size());
+    }
+  }
+
+  @Test
+  public void large_class() {
+    StringBuilder source = new StringBuilder("<?php\nclass A {\n");
+    for (int i = 0; i < 500; i++) {
+      source.append("  public function f").append(i).append("($a, $b = array()) {\n");
+      for (int j = 0; j < 10; j++) {
+        source.append("    if ($a[").append(j).append("] > $b->c($d, [1, 2])) { $e .= f($a + $b * 2, 'x'); }\n");
+      }
+      source.append("  }\n");
+    }
+    source.append("}\n");
+
+    AstNode fullRoot = fullParser.parse(source.toString());
+    AstNode root = parser.parse(source.toString());
+    assertThat(root.getDescendants(PHPGrammar.METHOD_DECLARATION)).hasSize(500);
+    assertThat(fullRoot.getDescendants(PHPGrammar.METHOD_DECLARATION)).hasSize(500);
+  }
+
+  private static List<String> values(List<Token> tokens) {
+    List<String> values = Lists.newArrayList();
+    for (Token token : tokens) {
+      values.add(token.getValue());
+    }
+    return values;
+  }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.parser;
+
+import com.google.common.base.Charsets;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.impl.Parser;
+import org.junit.Test;
+import org.sonar.php.PHPConfiguration;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PHPParserTest {
+
+  @Test
+  public void grammar_is_shared() {
+    Parser<Grammar> parser = PHPParser.create(new PHPConfiguration(Charsets.UTF_8));
+    Parser<Grammar> other = PHPParser.create(new PHPConfiguration(Charsets.ISO_8859_1));
+
+    assertThat(parser).isNotSameAs(other);
+    assertThat(parser.getGrammar()).isSameAs(other.getGrammar());
+    assertThat(parser.parse("<?php $a = 1;").getTokens()).hasSize(6);
+    assertThat(other.parse("<?php $a = 1;").getTokens()).hasSize(6);
+  }
+
+}
@@ -21,25 +21,33 @@ package org.sonar.php.parser;
 
 import com.google.common.base.Charsets;
 import com.sonar.sslr.api.Grammar;
-import com.sonar.sslr.api.Rule;
 import com.sonar.sslr.impl.Parser;
-import com.sonar.sslr.impl.matcher.GrammarFunctions;
-import com.sonar.sslr.impl.matcher.RuleDefinition;
 import org.sonar.php.PHPConfiguration;
+import org.sonar.php.lexer.PHPLexer;
 import org.sonar.php.lexer.PHPTagsChannel;
 import org.sonar.sslr.grammar.GrammarRuleKey;
+import org.sonar.sslr.grammar.LexerfulGrammarBuilder;
 import org.sonar.sslr.tests.Assertions;
 
 public class RuleTest {
 
-  protected Parser<Grammar> p = PHPParser.create(new PHPConfiguration(Charsets.UTF_8));
+  private enum TestRule implements GrammarRuleKey {
+    ROOT
+  }
+
+  protected Parser<Grammar> p = parser(PHPGrammar.create());
 
   protected void setRootRule(GrammarRuleKey ruleKey) {
-    Rule rule = p.getGrammar().rule(ruleKey);
-    // Needs to override because of the introduction of FILE_OPENING_TAG token, corresponding to the first PHP opening tag encountered
-    // Needs optional because of recursive rule that will expect the opening tag token before each recursion otherwise.
-    rule.override(GrammarFunctions.Standard.opt(PHPTagsChannel.FILE_OPENING_TAG), ((RuleDefinition) rule).getExpression());
-    p.setRootRule(rule);
+    // The first PHP opening tag encountered is a FILE_OPENING_TAG token, which the rule itself does not expect
+    LexerfulGrammarBuilder b = PHPGrammar.create();
+    b.rule(TestRule.ROOT).is(b.optional(PHPTagsChannel.FILE_OPENING_TAG), ruleKey);
+    p = parser(b);
+    p.setRootRule(p.getGrammar().rule(TestRule.ROOT));
+  }
+
+  private static Parser<Grammar> parser(LexerfulGrammarBuilder b) {
+    return Parser.builder(b.buildWithMemoizationOfMatchesForAllRules())
+      .withLexer(PHPLexer.create(new PHPConfiguration(Charsets.UTF_8))).build();
   }
 
   protected void matches(String input) {
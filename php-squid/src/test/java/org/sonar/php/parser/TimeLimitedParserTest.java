@@ -0,0 +1,115 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.php.parser;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.sonar.sslr.api.RecognitionException;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.impl.Lexer;
+import com.sonar.sslr.impl.LexerException;
+import org.junit.Test;
+import org.sonar.php.PHPConfiguration;
+import org.sonar.php.lexer.CancellationChannel;
+import org.sonar.php.lexer.PHPLexer;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class TimeLimitedParserTest {
+
+  private static final PHPConfiguration CONF = new PHPConfiguration(Charsets.UTF_8);
+
+  @Test
+  public void parse_within_timeout() {
+    TimeLimitedParser parser = PHPParser.createTimeLimited(CONF, 60000);
+    assertThat(parser.parse("<?php $a = 1;").getTokens()).hasSize(6);
+  }
+
+  @Test(expected = RecognitionException.class)
+  public void parse_error() {
+    PHPParser.createTimeLimited(CONF, 60000).parse("<?php $a = ;");
+  }
+
+  @Test
+  public void timeout() {
+    TimeLimitedParser parser = PHPParser.createTimeLimited(CONF, 1);
+    try {
+      parser.parse(largeSource());
+      fail();
+    } catch (ParseTimeoutException e) {
+      assertThat(e.getMessage()).isEqualTo("not parsed within 1 ms");
+    }
+  }
+
+  @Test
+  public void timeout_while_parsing() {
+    List<Token> tokens = PHPLexer.create(CONF).lex(largeSource());
+    TimeLimitedParser parser = PHPParser.createTimeLimited(CONF, 1);
+    try {
+      parser.parse(tokens);
+      fail();
+    } catch (ParseTimeoutException e) {
+      assertThat(e.getMessage()).isEqualTo("not parsed within 1 ms");
+    }
+  }
+
+  @Test
+  public void parse_after_timeout() {
+    TimeLimitedParser parser = PHPParser.createTimeLimited(CONF, 100);
+    try {
+      parser.parse(largeSource());
+      fail();
+    } catch (ParseTimeoutException e) {
+      assertThat(parser.parse("<?php $a = 1;").getTokens()).hasSize(6);
+    }
+  }
+
+  @Test
+  public void cancelled_lexer() {
+    CancellationChannel cancellation = new CancellationChannel();
+    Lexer lexer = PHPLexer.create(CONF, cancellation);
+    assertThat(lexer.lex("<?php $a = 1;")).hasSize(6);
+
+    cancellation.cancel();
+    assertThat(cancellation.isCancelled()).isTrue();
+    try {
+      lexer.lex("<?php $a = 1;");
+      fail();
+    } catch (LexerException e) {
+      assertThat(Throwables.getRootCause(e).getMessage()).isEqualTo("Lexing cancelled at line 1");
+    }
+  }
+
+  private static String largeSource() {
+    return source(100000);
+  }
+
+  private static String source(int lines) {
+    StringBuilder sb = new StringBuilder("<?php\n");
+    for (int i = 0; i < lines; i++) {
+      sb.append("$a = $b + ($c * foo($d, array(1, 2)));\n");
+    }
+    return sb.toString();
+  }
+
+}
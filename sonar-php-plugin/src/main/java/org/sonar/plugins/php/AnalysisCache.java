@@ -0,0 +1,220 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.php;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.php.PHPSourceCache;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk cache of the {@link FileAnalysis} of files, so that files which did not change since the previous analysis
+ * are not parsed again. Entries are keyed by a hash of the path and of the digest of the file which the
+ * {@link PHPSourceCache} took when the file was first read, so that the file is not read again to be looked up. The whole cache is
+ * dropped when its fingerprint, which covers the version of the plugin and the configuration of the rules, changes.
+ * <p/>
+ * The cache is written as a gzipped stream of binary entries. Entries of the files of the current analysis are written
+ * first, then the others, as long as the cache fits in its maximum size.
+ */
+class AnalysisCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AnalysisCache.class);
+
+  private static final int MAGIC = 0x50485043;
+  private static final int FORMAT_VERSION = 1;
+
+  private final File file;
+  private final String fingerprint;
+  private final long maxSize;
+  private final PHPSourceCache sourceCache;
+  private final Map<String, byte[]> usedEntries = Maps.newLinkedHashMap();
+  private final Map<String, byte[]> otherEntries = Maps.newLinkedHashMap();
+  private final Map<String, String> keysByPath = Maps.newHashMap();
+
+  private int hits;
+  private int misses;
+
+  AnalysisCache(File file, String fingerprint, long maxSize, PHPSourceCache sourceCache) {
+    this.file = file;
+    this.fingerprint = fingerprint;
+    this.maxSize = maxSize;
+    this.sourceCache = sourceCache;
+  }
+
+  void load() {
+    if (!file.isFile()) {
+      return;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !fingerprint.equals(in.readUTF())) {
+        LOG.info("Analysis cache of other settings or version, not used: " + file.getPath());
+        return;
+      }
+      for (int i = in.readInt(); i > 0; i--) {
+        String key = in.readUTF();
+        byte[] entry = new byte[in.readInt()];
+        in.readFully(entry);
+        otherEntries.put(key, entry);
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to read the analysis cache " + file.getPath(), e);
+      otherEntries.clear();
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Returns the analysis of the given file if its path and contents did not change since it was put in the cache.
+   */
+  @CheckForNull
+  FileAnalysis get(File sourceFile) {
+    String key = key(sourceFile);
+    byte[] entry = key == null ? null : otherEntries.remove(key);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    usedEntries.put(key, entry);
+    try {
+      FileAnalysis analysis = FileAnalysis.read(new DataInputStream(new ByteArrayInputStream(entry)));
+      hits++;
+      return analysis;
+    } catch (IOException e) {
+      usedEntries.remove(key);
+      misses++;
+      return null;
+    }
+  }
+
+  void put(File sourceFile, FileAnalysis analysis) {
+    String key = keysByPath.get(sourceFile.getAbsolutePath());
+    if (key == null) {
+      key = key(sourceFile);
+    }
+    if (key == null) {
+      return;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      analysis.write(new DataOutputStream(bytes));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    otherEntries.remove(key);
+    usedEntries.put(key, bytes.toByteArray());
+  }
+
+  void save() {
+    int written = 0;
+    DataOutputStream out = null;
+    try {
+      Files.createParentDirs(file);
+      out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file))));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(fingerprint);
+
+      Map<String, byte[]> entries = Maps.newLinkedHashMap(usedEntries);
+      entries.putAll(otherEntries);
+      long size = 0;
+      for (byte[] entry : entries.values()) {
+        if (size + entry.length > maxSize) {
+          break;
+        }
+        size += entry.length;
+        written++;
+      }
+      out.writeInt(written);
+      int i = 0;
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        if (i == written) {
+          break;
+        }
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue().length);
+        out.write(entry.getValue());
+        i++;
+      }
+      out.close();
+      out = null;
+    } catch (IOException e) {
+      LOG.warn("Unable to write the analysis cache " + file.getPath(), e);
+      file.delete();
+    } finally {
+      Closeables.closeQuietly(out);
+    }
+    int evicted = usedEntries.size() + otherEntries.size() - written;
+    LOG.info("Analysis cache: " + hits + " hits, " + misses + " misses, " + evicted + " entries evicted");
+  }
+
+  int getHits() {
+    return hits;
+  }
+
+  int getMisses() {
+    return misses;
+  }
+
+  @CheckForNull
+  private String key(File sourceFile) {
+    byte[] contentsDigest;
+    try {
+      contentsDigest = sourceCache.digest(sourceFile);
+    } catch (IllegalStateException e) {
+      return null;
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(sourceFile.getAbsolutePath().getBytes(Charsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(contentsDigest);
+      String key = new BigInteger(1, digest.digest()).toString(16);
+      keysByPath.put(sourceFile.getAbsolutePath(), key);
+      return key;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
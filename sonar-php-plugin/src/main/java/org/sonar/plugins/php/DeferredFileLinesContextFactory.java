@@ -0,0 +1,131 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.php;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import org.sonar.api.measures.FileLinesContext;
+import org.sonar.api.measures.FileLinesContextFactory;
+import org.sonar.api.resources.Resource;
+
+import javax.annotation.CheckForNull;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Keeps the line data saved by visitors for each file, until the sensor saves it, from its own thread: Sonar does not
+ * expect measures from the threads of a parallel analysis. The line data of a file is also stored in the analysis
+ * cache.
+ */
+class DeferredFileLinesContextFactory implements FileLinesContextFactory {
+
+  static class DeferredFileLinesContext implements FileLinesContext {
+    private final Table<String, Integer, Integer> intValues = HashBasedTable.create();
+    private final Table<String, Integer, String> stringValues = HashBasedTable.create();
+
+    @Override
+    public void setIntValue(String metricKey, int line, int value) {
+      intValues.put(metricKey, line, value);
+    }
+
+    @Override
+    public Integer getIntValue(String metricKey, int line) {
+      return intValues.get(metricKey, line);
+    }
+
+    @Override
+    public void setStringValue(String metricKey, int line, String value) {
+      stringValues.put(metricKey, line, value);
+    }
+
+    @Override
+    public String getStringValue(String metricKey, int line) {
+      return stringValues.get(metricKey, line);
+    }
+
+    @Override
+    public void save() {
+      // saved by saveTo()
+    }
+
+    void saveTo(FileLinesContext context) {
+      for (Table.Cell<String, Integer, Integer> cell : intValues.cellSet()) {
+        context.setIntValue(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+      }
+      for (Table.Cell<String, Integer, String> cell : stringValues.cellSet()) {
+        context.setStringValue(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+      }
+      context.save();
+    }
+
+    void write(DataOutput out) throws IOException {
+      out.writeInt(intValues.size());
+      for (Table.Cell<String, Integer, Integer> cell : intValues.cellSet()) {
+        out.writeUTF(cell.getRowKey());
+        out.writeInt(cell.getColumnKey());
+        out.writeInt(cell.getValue());
+      }
+      out.writeInt(stringValues.size());
+      for (Table.Cell<String, Integer, String> cell : stringValues.cellSet()) {
+        out.writeUTF(cell.getRowKey());
+        out.writeInt(cell.getColumnKey());
+        out.writeUTF(cell.getValue());
+      }
+    }
+
+    static DeferredFileLinesContext read(DataInput in) throws IOException {
+      DeferredFileLinesContext context = new DeferredFileLinesContext();
+      for (int i = in.readInt(); i > 0; i--) {
+        context.intValues.put(in.readUTF(), in.readInt(), in.readInt());
+      }
+      for (int i = in.readInt(); i > 0; i--) {
+        context.stringValues.put(in.readUTF(), in.readInt(), in.readUTF());
+      }
+      return context;
+    }
+  }
+
+  private final Map<String, DeferredFileLinesContext> contexts = Maps.newHashMap();
+  private String path;
+
+  /**
+   * Sets the file of the contexts created next.
+   */
+  void setFile(File file) {
+    path = file.getAbsolutePath();
+  }
+
+  @Override
+  public FileLinesContext createFor(Resource resource) {
+    DeferredFileLinesContext context = new DeferredFileLinesContext();
+    contexts.put(path, context);
+    return context;
+  }
+
+  @CheckForNull
+  DeferredFileLinesContext get(File file) {
+    return contexts.get(file.getAbsolutePath());
+  }
+
+}
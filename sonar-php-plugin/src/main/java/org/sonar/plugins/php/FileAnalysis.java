@@ -0,0 +1,104 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.php;
+
+import com.google.common.collect.Lists;
+import org.sonar.php.api.PHPMetric;
+import org.sonar.plugins.php.DeferredFileLinesContextFactory.DeferredFileLinesContext;
+
+import javax.annotation.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * What {@link PHPSquidSensor} saves for one file: its measures, the complexities of its functions, its line data and
+ * its issues. Computed by the scanners, or read from the analysis cache.
+ */
+class FileAnalysis {
+
+  static class Issue {
+    final String repositoryKey;
+    final String ruleKey;
+    final Integer line;
+    final String message;
+
+    Issue(String repositoryKey, String ruleKey, @Nullable Integer line, String message) {
+      this.repositoryKey = repositoryKey;
+      this.ruleKey = ruleKey;
+      this.line = line;
+      this.message = message;
+    }
+  }
+
+  private final double[] measures = new double[PHPMetric.values().length];
+  double complexityInClasses;
+  final List<Double> functionComplexities = Lists.newArrayList();
+  final List<Issue> issues = Lists.newArrayList();
+  DeferredFileLinesContext lines = new DeferredFileLinesContext();
+
+  double getMeasure(PHPMetric metric) {
+    return measures[metric.ordinal()];
+  }
+
+  void setMeasure(PHPMetric metric, double value) {
+    measures[metric.ordinal()] = value;
+  }
+
+  void write(DataOutput out) throws IOException {
+    for (double measure : measures) {
+      out.writeDouble(measure);
+    }
+    out.writeDouble(complexityInClasses);
+    out.writeInt(functionComplexities.size());
+    for (double complexity : functionComplexities) {
+      out.writeDouble(complexity);
+    }
+    out.writeInt(issues.size());
+    for (Issue issue : issues) {
+      out.writeUTF(issue.repositoryKey);
+      out.writeUTF(issue.ruleKey);
+      out.writeInt(issue.line == null ? -1 : issue.line);
+      out.writeUTF(issue.message);
+    }
+    lines.write(out);
+  }
+
+  static FileAnalysis read(DataInput in) throws IOException {
+    FileAnalysis analysis = new FileAnalysis();
+    for (int i = 0; i < analysis.measures.length; i++) {
+      analysis.measures[i] = in.readDouble();
+    }
+    analysis.complexityInClasses = in.readDouble();
+    for (int i = in.readInt(); i > 0; i--) {
+      analysis.functionComplexities.add(in.readDouble());
+    }
+    for (int i = in.readInt(); i > 0; i--) {
+      String repositoryKey = in.readUTF();
+      String ruleKey = in.readUTF();
+      int line = in.readInt();
+      analysis.issues.add(new Issue(repositoryKey, ruleKey, line == -1 ? null : line, in.readUTF()));
+    }
+    analysis.lines = DeferredFileLinesContext.read(in);
+    return analysis;
+  }
+
+}
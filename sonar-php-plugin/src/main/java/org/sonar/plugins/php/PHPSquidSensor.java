@@ -20,12 +20,19 @@
 package org.sonar.plugins.php;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sonar.sslr.api.AstNode;
 import com.sonar.sslr.api.Grammar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.Sensor;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.checks.AnnotationCheckFactory;
 import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.config.Settings;
 import org.sonar.api.issue.Issuable;
 import org.sonar.api.issue.Issue;
 import org.sonar.api.measures.CoreMetrics;
@@ -36,13 +43,16 @@ import org.sonar.api.profiles.RulesProfile;
 import org.sonar.api.resources.Project;
 import org.sonar.api.rule.RuleKey;
 import org.sonar.api.rules.ActiveRule;
+import org.sonar.api.rules.ActiveRuleParam;
 import org.sonar.api.scan.filesystem.FileQuery;
 import org.sonar.api.scan.filesystem.ModuleFileSystem;
 import org.sonar.php.PHPAstScanner;
 import org.sonar.php.PHPConfiguration;
+import org.sonar.php.PHPSourceCache;
 import org.sonar.php.api.PHPMetric;
 import org.sonar.php.checks.CheckList;
 import org.sonar.php.metrics.FileLinesVisitor;
+import org.sonar.plugins.php.DeferredFileLinesContextFactory.DeferredFileLinesContext;
 import org.sonar.plugins.php.api.Php;
 import org.sonar.squidbridge.AstScanner;
 import org.sonar.squidbridge.SquidAstVisitor;
@@ -54,29 +64,96 @@ import org.sonar.squidbridge.api.SourceFunction;
 import org.sonar.squidbridge.indexer.QueryByParent;
 import org.sonar.squidbridge.indexer.QueryByType;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import java.io.File;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class PHPSquidSensor implements Sensor {
 
   private static final Number[] FUNCTIONS_DISTRIB_BOTTOM_LIMITS = {1, 2, 4, 6, 8, 10, 12};
   private static final Number[] FILES_DISTRIB_BOTTOM_LIMITS = {0, 5, 10, 20, 30, 60, 90};
 
+  private static final Logger LOG = LoggerFactory.getLogger(PHPSquidSensor.class);
+
+  private static final String CACHE_FILE = "php-analysis-cache.bin";
+  private static final long CACHE_MAX_SIZE = 256L * 1024 * 1024;
+
+  /**
+   * Scans a share of the files, with checks of its own. The line data is kept until the sensor saves it, unless the
+   * worker saves it directly.
+   */
+  private class Worker implements Callable<Void> {
+    private final AnnotationCheckFactory checkFactory;
+    private final List<File> files = Lists.newArrayList();
+    @Nullable
+    private final DeferredFileLinesContextFactory fileLines;
+    private AstScanner<Grammar> scanner;
+    private long size;
+
+    Worker(AnnotationCheckFactory checkFactory, boolean deferred) {
+      this.checkFactory = checkFactory;
+      this.fileLines = deferred ? new DeferredFileLinesContextFactory() : null;
+    }
+
+    @Override
+    public Void call() {
+      scanner = createScanner(checkFactory, fileLines);
+      scanner.scanFiles(files);
+      return null;
+    }
+
+    void collect(Map<String, FileAnalysis> analyses) {
+      for (SourceCode squidFile : scanner.getIndex().search(new QueryByType(SourceFile.class))) {
+        analyses.put(squidFile.getKey(), createAnalysis((SourceFile) squidFile, this));
+      }
+    }
+  }
+
+  private static final Comparator<File> BY_DECREASING_SIZE = new Comparator<File>() {
+    @Override
+    public int compare(File a, File b) {
+      long sizeA = a.length();
+      long sizeB = b.length();
+      if (sizeA != sizeB) {
+        return sizeA > sizeB ? -1 : 1;
+      }
+      return a.getPath().compareTo(b.getPath());
+    }
+  };
+
+  private final RulesProfile profile;
   private final AnnotationCheckFactory annotationCheckFactory;
   private final ResourcePerspectives resourcePerspectives;
   private final ModuleFileSystem fileSystem;
   private final FileLinesContextFactory fileLinesContextFactory;
-  private AstScanner<Grammar> scanner;
+  private final Settings settings;
+  private final PHPSourceCache sourceCache;
   private SensorContext context;
   private Project project;
 
-  public PHPSquidSensor(RulesProfile profile, ResourcePerspectives resourcePerspectives, ModuleFileSystem filesystem, FileLinesContextFactory fileLinesContextFactory) {
+  public PHPSquidSensor(RulesProfile profile, ResourcePerspectives resourcePerspectives, ModuleFileSystem filesystem, FileLinesContextFactory fileLinesContextFactory,
+    Settings settings, PHPSourceCache sourceCache) {
+    this.profile = profile;
     this.annotationCheckFactory = AnnotationCheckFactory.create(profile, CheckList.REPOSITORY_KEY, CheckList.getChecks());
     this.resourcePerspectives = resourcePerspectives;
     this.fileLinesContextFactory = fileLinesContextFactory;
     this.fileSystem = filesystem;
+    this.settings = settings;
+    this.sourceCache = sourceCache;
   }
 
   @Override
@@ -89,12 +166,166 @@ public class PHPSquidSensor implements Sensor {
     this.context = context;
     this.project = project;
 
-    List<SquidAstVisitor<Grammar>> visitors = getCheckVisitors();
-    visitors.add(new FileLinesVisitor(project, fileLinesContextFactory));
-    this.scanner = PHPAstScanner.create(createConfiguration(), visitors.toArray(new SquidAstVisitor[visitors.size()]));
-    scanner.scanFiles(getProjectMainFiles());
+    Map<String, FileAnalysis> analyses = Maps.newTreeMap();
+    List<File> files = Lists.newArrayList(getProjectMainFiles());
+    AnalysisCache cache = createCache();
+    if (cache != null) {
+      List<File> changedFiles = Lists.newArrayList();
+      for (File file : files) {
+        FileAnalysis analysis = cache.get(file);
+        if (analysis == null) {
+          changedFiles.add(file);
+        } else {
+          analyses.put(file.getAbsolutePath(), analysis);
+        }
+      }
+      files = changedFiles;
+    }
+
+    int threads = settings.getInt(PhpPlugin.ANALYSIS_THREADS_KEY);
+    if (threads <= 1 && cache == null) {
+      analyseAndSave(files);
+      return;
+    }
+
+    Map<String, FileAnalysis> newAnalyses = Maps.newTreeMap();
+    if (threads > 1) {
+      analyseInParallel(files, threads, newAnalyses);
+    } else if (!files.isEmpty()) {
+      Worker worker = new Worker(annotationCheckFactory, true);
+      worker.files.addAll(files);
+      worker.call();
+      worker.collect(newAnalyses);
+    }
+    analyses.putAll(newAnalyses);
+
+    for (Map.Entry<String, FileAnalysis> entry : analyses.entrySet()) {
+      save(getSonarResource(new File(entry.getKey())), entry.getValue());
+    }
+
+    if (cache != null) {
+      for (Map.Entry<String, FileAnalysis> entry : newAnalyses.entrySet()) {
+        cache.put(new File(entry.getKey()), entry.getValue());
+      }
+      cache.save();
+    }
+  }
 
-    save(scanner.getIndex().search(new QueryByType(SourceFile.class)));
+  /**
+   * Saves the results as each file is scanned, without keeping its line data, when nothing needs it afterwards.
+   */
+  private void analyseAndSave(List<File> files) {
+    Worker worker = new Worker(annotationCheckFactory, false);
+    worker.files.addAll(files);
+    worker.call();
+    for (SourceCode squidFile : worker.scanner.getIndex().search(new QueryByType(SourceFile.class))) {
+      saveMeasures(getSonarResource(new File(squidFile.getKey())), createAnalysis((SourceFile) squidFile, worker));
+    }
+  }
+
+  /**
+   * Shares the files between workers, the largest files first and each to the worker with the least to scan, so that
+   * the results do not depend on timing.
+   */
+  private void analyseInParallel(List<File> files, int threads, Map<String, FileAnalysis> analyses) {
+    List<Worker> workers = Lists.newArrayList();
+    workers.add(new Worker(annotationCheckFactory, true));
+    for (int i = 1; i < threads; i++) {
+      workers.add(new Worker(AnnotationCheckFactory.create(profile, CheckList.REPOSITORY_KEY, CheckList.getChecks()), true));
+    }
+
+    List<File> sortedFiles = Lists.newArrayList(files);
+    Collections.sort(sortedFiles, BY_DECREASING_SIZE);
+    for (File file : sortedFiles) {
+      Worker worker = workers.get(0);
+      for (Worker other : workers) {
+        if (other.size < worker.size) {
+          worker = other;
+        }
+      }
+      worker.files.add(file);
+      worker.size += file.length();
+    }
+
+    LOG.info("Analyzing " + files.size() + " files with " + threads + " threads");
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (Future<Void> future : executor.invokeAll(workers)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    for (Worker worker : workers) {
+      worker.collect(analyses);
+    }
+  }
+
+  private AstScanner<Grammar> createScanner(AnnotationCheckFactory checkFactory, @Nullable final DeferredFileLinesContextFactory fileLines) {
+    List<SquidAstVisitor<Grammar>> visitors = Lists.newArrayList(checkFactory.getChecks());
+    if (fileLines == null) {
+      visitors.add(new FileLinesVisitor(project, fileLinesContextFactory));
+    } else {
+      visitors.add(new FileLinesVisitor(project, fileLines) {
+        @Override
+        public void leaveFile(AstNode astNode) {
+          fileLines.setFile(getContext().getFile());
+          super.leaveFile(astNode);
+        }
+      });
+    }
+    return PHPAstScanner.create(createConfiguration(), visitors.toArray(new SquidAstVisitor[visitors.size()]));
+  }
+
+  /**
+   * Unchanged files are not analyzed again when the cache is enabled, and the project has a working directory.
+   */
+  @CheckForNull
+  private AnalysisCache createCache() {
+    File workingDir = fileSystem.workingDir();
+    if (!settings.getBoolean(PhpPlugin.ANALYSIS_CACHE_KEY) || workingDir == null) {
+      return null;
+    }
+    AnalysisCache cache = new AnalysisCache(new File(workingDir, CACHE_FILE), fingerprint(), CACHE_MAX_SIZE, sourceCache);
+    cache.load();
+    return cache;
+  }
+
+  /**
+   * Everything but the source files which the results of the analysis depend on: the version of the plugin, then a
+   * hash of the active rules with their parameters, the charset and the parse timeout.
+   */
+  @VisibleForTesting
+  String fingerprint() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(fileSystem.sourceCharset());
+    sb.append(' ').append(settings.getLong(PhpPlugin.PARSE_TIMEOUT_KEY));
+
+    List<String> rules = Lists.newArrayList();
+    for (ActiveRule rule : profile.getActiveRulesByRepository(CheckList.REPOSITORY_KEY)) {
+      List<String> params = Lists.newArrayList();
+      for (ActiveRuleParam param : rule.getActiveRuleParams()) {
+        params.add(param.getKey() + "=" + param.getValue());
+      }
+      Collections.sort(params);
+      rules.add(rule.getRuleKey() + params);
+    }
+    Collections.sort(rules);
+    for (String rule : rules) {
+      sb.append(' ').append(rule);
+    }
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-1").digest(sb.toString().getBytes(Charsets.UTF_8));
+      return PhpPlugin.class.getPackage().getImplementationVersion() + " " + new BigInteger(1, hash).toString(16);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
   }
 
   @VisibleForTesting
@@ -102,84 +333,97 @@ public class PHPSquidSensor implements Sensor {
     return org.sonar.api.resources.File.fromIOFile(file, project);
   }
 
-  private void save(Collection<SourceCode> squidSourceFiles) {
-    for (SourceCode squidSourceFile : squidSourceFiles) {
-      SourceFile squidFile = (SourceFile) squidSourceFile;
-      org.sonar.api.resources.File sonarFile = getSonarResource(new java.io.File(squidFile.getKey()));
+  private FileAnalysis createAnalysis(SourceFile squidFile, Worker worker) {
+    FileAnalysis analysis = new FileAnalysis();
+    for (PHPMetric metric : PHPMetric.values()) {
+      analysis.setMeasure(metric, squidFile.getDouble(metric));
+    }
 
-      saveClassComplexity(sonarFile, squidFile);
-      saveFilesComplexityDistribution(sonarFile, squidFile);
-      saveFunctionsComplexityDistribution(sonarFile, squidFile);
-      saveFileMeasures(sonarFile, squidFile);
-      saveViolations(sonarFile, squidFile);
+    for (SourceCode squidClass : worker.scanner.getIndex().search(new QueryByParent(squidFile), new QueryByType(SourceClass.class))) {
+      analysis.complexityInClasses += squidClass.getDouble(PHPMetric.COMPLEXITY);
+    }
+    for (SourceCode squidFunction : worker.scanner.getIndex().search(new QueryByParent(squidFile), new QueryByType(SourceFunction.class))) {
+      analysis.functionComplexities.add(squidFunction.getDouble(PHPMetric.COMPLEXITY));
     }
+
+    Collection<CheckMessage> messages = squidFile.getCheckMessages();
+    if (messages != null) {
+      for (CheckMessage message : messages) {
+        ActiveRule rule = worker.checkFactory.getActiveRule(message.getCheck());
+        analysis.issues.add(new FileAnalysis.Issue(rule.getRepositoryKey(), rule.getRuleKey(), message.getLine(), message.getText(Locale.ENGLISH)));
+      }
+    }
+
+    if (worker.fileLines != null) {
+      DeferredFileLinesContext lines = worker.fileLines.get(new File(squidFile.getKey()));
+      if (lines != null) {
+        analysis.lines = lines;
+      }
+    }
+    return analysis;
   }
 
-  private void saveFileMeasures(org.sonar.api.resources.File sonarFile, SourceFile squidFile) {
-    context.saveMeasure(sonarFile, CoreMetrics.FILES, squidFile.getDouble(PHPMetric.FILES));
-    context.saveMeasure(sonarFile, CoreMetrics.LINES, squidFile.getDouble(PHPMetric.LINES));
-    context.saveMeasure(sonarFile, CoreMetrics.NCLOC, squidFile.getDouble(PHPMetric.LINES_OF_CODE));
-    context.saveMeasure(sonarFile, CoreMetrics.COMMENT_LINES, squidFile.getDouble(PHPMetric.COMMENT_LINES));
-    context.saveMeasure(sonarFile, CoreMetrics.CLASSES, squidFile.getDouble(PHPMetric.CLASSES));
-    context.saveMeasure(sonarFile, CoreMetrics.FUNCTIONS, squidFile.getDouble(PHPMetric.FUNCTIONS));
-    context.saveMeasure(sonarFile, CoreMetrics.STATEMENTS, squidFile.getDouble(PHPMetric.STATEMENTS));
-    context.saveMeasure(sonarFile, CoreMetrics.COMPLEXITY, squidFile.getDouble(PHPMetric.COMPLEXITY));
+  private void save(org.sonar.api.resources.File sonarFile, FileAnalysis analysis) {
+    saveMeasures(sonarFile, analysis);
+    analysis.lines.saveTo(fileLinesContextFactory.createFor(sonarFile));
   }
 
-  private void saveClassComplexity(org.sonar.api.resources.File sonarFile, SourceFile squidFile) {
-    Collection<SourceCode> classes = scanner.getIndex().search(new QueryByParent(squidFile), new QueryByType(SourceClass.class));
-    double complexityInClasses = 0;
-    for (SourceCode squidClass : classes) {
-      double classComplexity = squidClass.getDouble(PHPMetric.COMPLEXITY);
-      complexityInClasses += classComplexity;
-    }
-    context.saveMeasure(sonarFile, CoreMetrics.COMPLEXITY_IN_CLASSES, complexityInClasses);
+  private void saveMeasures(org.sonar.api.resources.File sonarFile, FileAnalysis analysis) {
+    context.saveMeasure(sonarFile, CoreMetrics.COMPLEXITY_IN_CLASSES, analysis.complexityInClasses);
+    saveFilesComplexityDistribution(sonarFile, analysis);
+    saveFunctionsComplexityDistribution(sonarFile, analysis);
+    saveFileMeasures(sonarFile, analysis);
+    saveViolations(sonarFile, analysis);
+  }
+
+  private void saveFileMeasures(org.sonar.api.resources.File sonarFile, FileAnalysis analysis) {
+    context.saveMeasure(sonarFile, CoreMetrics.FILES, analysis.getMeasure(PHPMetric.FILES));
+    context.saveMeasure(sonarFile, CoreMetrics.LINES, analysis.getMeasure(PHPMetric.LINES));
+    context.saveMeasure(sonarFile, CoreMetrics.NCLOC, analysis.getMeasure(PHPMetric.LINES_OF_CODE));
+    context.saveMeasure(sonarFile, CoreMetrics.COMMENT_LINES, analysis.getMeasure(PHPMetric.COMMENT_LINES));
+    context.saveMeasure(sonarFile, CoreMetrics.CLASSES, analysis.getMeasure(PHPMetric.CLASSES));
+    context.saveMeasure(sonarFile, CoreMetrics.FUNCTIONS, analysis.getMeasure(PHPMetric.FUNCTIONS));
+    context.saveMeasure(sonarFile, CoreMetrics.STATEMENTS, analysis.getMeasure(PHPMetric.STATEMENTS));
+    context.saveMeasure(sonarFile, CoreMetrics.COMPLEXITY, analysis.getMeasure(PHPMetric.COMPLEXITY));
   }
 
-  private void saveFunctionsComplexityDistribution(org.sonar.api.resources.File sonarFile, SourceFile squidFile) {
-    Collection<SourceCode> squidFunctionsInFile = scanner.getIndex().search(new QueryByParent(squidFile), new QueryByType(SourceFunction.class));
+  private void saveFunctionsComplexityDistribution(org.sonar.api.resources.File sonarFile, FileAnalysis analysis) {
     RangeDistributionBuilder complexityDistribution = new RangeDistributionBuilder(CoreMetrics.FUNCTION_COMPLEXITY_DISTRIBUTION, FUNCTIONS_DISTRIB_BOTTOM_LIMITS);
-    for (SourceCode squidFunction : squidFunctionsInFile) {
-      complexityDistribution.add(squidFunction.getDouble(PHPMetric.COMPLEXITY));
+    for (double complexity : analysis.functionComplexities) {
+      complexityDistribution.add(complexity);
     }
     context.saveMeasure(sonarFile, complexityDistribution.build().setPersistenceMode(PersistenceMode.MEMORY));
   }
 
-  private void saveFilesComplexityDistribution(org.sonar.api.resources.File sonarFile, SourceFile squidFile) {
+  private void saveFilesComplexityDistribution(org.sonar.api.resources.File sonarFile, FileAnalysis analysis) {
     RangeDistributionBuilder complexityDistribution = new RangeDistributionBuilder(CoreMetrics.FILE_COMPLEXITY_DISTRIBUTION, FILES_DISTRIB_BOTTOM_LIMITS);
-    complexityDistribution.add(squidFile.getDouble(PHPMetric.COMPLEXITY));
+    complexityDistribution.add(analysis.getMeasure(PHPMetric.COMPLEXITY));
     context.saveMeasure(sonarFile, complexityDistribution.build().setPersistenceMode(PersistenceMode.MEMORY));
   }
 
-  private void saveViolations(org.sonar.api.resources.File sonarFile, SourceFile squidFile) {
-    Collection<CheckMessage> messages = squidFile.getCheckMessages();
-    if (messages != null) {
+  private void saveViolations(org.sonar.api.resources.File sonarFile, FileAnalysis analysis) {
+    for (FileAnalysis.Issue fileIssue : analysis.issues) {
+      Issuable issuable = resourcePerspectives.as(Issuable.class, sonarFile);
 
-      for (CheckMessage message : messages) {
-        ActiveRule rule = annotationCheckFactory.getActiveRule(message.getCheck());
-        Issuable issuable = resourcePerspectives.as(Issuable.class, sonarFile);
-
-        if (issuable != null) {
-          Issue issue = issuable.newIssueBuilder()
-            .ruleKey(RuleKey.of(rule.getRepositoryKey(), rule.getRuleKey()))
-            .line(message.getLine())
-            .message(message.getText(Locale.ENGLISH))
-            .build();
-          issuable.addIssue(issue);
-        }
+      if (issuable != null) {
+        Issue issue = issuable.newIssueBuilder()
+          .ruleKey(RuleKey.of(fileIssue.repositoryKey, fileIssue.ruleKey))
+          .line(fileIssue.line)
+          .message(fileIssue.message)
+          .build();
+        issuable.addIssue(issue);
       }
     }
   }
 
   private PHPConfiguration createConfiguration() {
-    return new PHPConfiguration(fileSystem.sourceCharset());
+    PHPConfiguration conf = new PHPConfiguration(fileSystem.sourceCharset());
+    conf.setParseTimeout(settings.getLong(PhpPlugin.PARSE_TIMEOUT_KEY));
+    conf.setSourceCache(sourceCache);
+    return conf;
   }
 
   private Collection<File> getProjectMainFiles() {
     return fileSystem.files(FileQuery.onSource().onLanguage(Php.KEY));
   }
-
-  private List<SquidAstVisitor<Grammar>> getCheckVisitors() {
-    return Lists.newArrayList(annotationCheckFactory.getChecks());
-  }
 }
@@ -22,10 +22,12 @@ package org.sonar.plugins.php;
 import com.google.common.collect.ImmutableList;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
+import org.sonar.api.PropertyType;
 import org.sonar.api.SonarPlugin;
 import org.sonar.plugins.php.api.Php;
 import org.sonar.plugins.php.core.NoSonarAndCommentedOutLocSensor;
 import org.sonar.plugins.php.core.PhpCommonRulesEngine;
+import org.sonar.plugins.php.core.PhpSourceCache;
 import org.sonar.plugins.php.core.PhpSourceCodeColorizer;
 import org.sonar.plugins.php.core.PhpSourceImporter;
 import org.sonar.plugins.php.duplications.PhpCPDMapping;
@@ -52,13 +54,37 @@ import java.util.List;
     name = "Coverage Report",
     project = true,
     global = true,
-    description = "Path to the PHPUnit code coverage report file. The path may be either absolute or relative to the project base directory.")
+    description = "Path to the PHPUnit code coverage report file. The path may be either absolute or relative to the project base directory."),
+  @Property(key = PhpPlugin.PARSE_TIMEOUT_KEY,
+    defaultValue = "0",
+    name = "Parse Timeout",
+    project = true,
+    global = true,
+    type = PropertyType.INTEGER,
+    description = "Time in milliseconds allowed to parse each file. Files which take longer are skipped, and only their lines are counted. 0 means no limit."),
+  @Property(key = PhpPlugin.ANALYSIS_THREADS_KEY,
+    defaultValue = "1",
+    name = "Analysis Threads",
+    project = true,
+    global = true,
+    type = PropertyType.INTEGER,
+    description = "Number of threads which analyze PHP files in parallel. Results are the same whatever the number of threads."),
+  @Property(key = PhpPlugin.ANALYSIS_CACHE_KEY,
+    defaultValue = "false",
+    name = "Analysis Cache",
+    project = true,
+    global = true,
+    type = PropertyType.BOOLEAN,
+    description = "Keeps the results of the analysis of each file in the working directory, so that files which did not change are not analyzed again.")
 })
 public class PhpPlugin extends SonarPlugin {
 
   public static final String FILE_SUFFIXES_KEY = "sonar.php.file.suffixes";
   public static final String PHPUNIT_COVERAGE_REPORT_PATH_KEY = "sonar.php.coverage.reportPath";
   public static final String PHPUNIT_TESTS_REPORT_PATH_KEY = "sonar.php.tests.reportPath";
+  public static final String PARSE_TIMEOUT_KEY = "sonar.php.parser.timeout";
+  public static final String ANALYSIS_THREADS_KEY = "sonar.php.analysis.threads";
+  public static final String ANALYSIS_CACHE_KEY = "sonar.php.analysis.cache";
 
   /**
    * Gets the extensions.
@@ -72,6 +98,7 @@ public class PhpPlugin extends SonarPlugin {
       Php.class,
 
       // Core extensions
+      PhpSourceCache.class,
       PhpSourceImporter.class,
       PhpSourceCodeColorizer.class,
       NoSonarAndCommentedOutLocSensor.class,
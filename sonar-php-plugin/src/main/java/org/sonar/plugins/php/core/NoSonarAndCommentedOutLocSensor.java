@@ -20,7 +20,7 @@
 package org.sonar.plugins.php.core;
 
 import com.google.common.annotations.VisibleForTesting;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CharSequenceReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.Phase;
@@ -32,6 +32,7 @@ import org.sonar.api.resources.Project;
 import org.sonar.api.scan.filesystem.FileQuery;
 import org.sonar.api.scan.filesystem.ModuleFileSystem;
 import org.sonar.api.utils.SonarException;
+import org.sonar.php.PHPSourceCache;
 import org.sonar.php.api.PHPKeyword;
 import org.sonar.plugins.php.api.Php;
 import org.sonar.squidbridge.measures.Metric;
@@ -45,8 +46,6 @@ import org.sonar.squidbridge.recognizer.LanguageFootprint;
 import org.sonar.squidbridge.text.Source;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -61,10 +60,12 @@ public class NoSonarAndCommentedOutLocSensor implements Sensor {
 
   private final NoSonarFilter filter;
   private final ModuleFileSystem filesystem;
+  private final PHPSourceCache sourceCache;
 
-  public NoSonarAndCommentedOutLocSensor(ModuleFileSystem filesystem, NoSonarFilter noSonarFilter) {
+  public NoSonarAndCommentedOutLocSensor(ModuleFileSystem filesystem, NoSonarFilter noSonarFilter, PHPSourceCache sourceCache) {
     this.filter = noSonarFilter;
     this.filesystem = filesystem;
+    this.sourceCache = sourceCache;
   }
 
   /**
@@ -90,18 +91,26 @@ public class NoSonarAndCommentedOutLocSensor implements Sensor {
     return org.sonar.api.resources.File.fromIOFile(file, project);
   }
 
-  protected static Source analyseSourceCode(File file) {
-    Source result = null;
-    FileReader reader = null;
+  private Source analyseSourceCode(File file) {
+    CharSequence contents;
     try {
-      reader = new FileReader(file);
-      result = new Source(reader, new CodeRecognizer(CODE_RECOGNIZER_SENSITIVITY, new PhpLanguageFootprint()));
-    } catch (FileNotFoundException e) {
+      contents = sourceCache.acquire(file);
+    } catch (IllegalStateException e) {
       throw new SonarException("Unable to open file '" + file.getAbsolutePath() + "'", e);
+    }
+    try {
+      return analyseSourceCode(file, contents);
+    } finally {
+      sourceCache.release(file);
+    }
+  }
+
+  protected static Source analyseSourceCode(File file, CharSequence contents) {
+    Source result = null;
+    try {
+      result = new Source(new CharSequenceReader(contents), new CodeRecognizer(CODE_RECOGNIZER_SENSITIVITY, new PhpLanguageFootprint()));
     } catch (RuntimeException rEx) {
       LOG.error("Error while parsing file '" + file.getAbsolutePath() + "'", rEx);
-    } finally {
-      IOUtils.closeQuietly(reader);
     }
 
     return result;
@@ -0,0 +1,43 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.php.core;
+
+import org.sonar.api.BatchExtension;
+import org.sonar.api.config.Settings;
+import org.sonar.api.scan.filesystem.ModuleFileSystem;
+import org.sonar.php.PHPSourceCache;
+import org.sonar.plugins.php.PhpPlugin;
+
+/**
+ * Contents of the PHP files of the project, shared by the sensors, the scanner and the checks so that each file is
+ * read once. Digests of the files are kept for the analysis cache when it is enabled.
+ */
+public class PhpSourceCache extends PHPSourceCache implements BatchExtension {
+
+  /**
+   * Characters of the first files read which are kept for the next sensors, about 64 MB of heap.
+   */
+  private static final long MAX_CHARS = 32L * 1024 * 1024;
+
+  public PhpSourceCache(ModuleFileSystem fileSystem, Settings settings) {
+    super(fileSystem.sourceCharset(), MAX_CHARS, settings.getBoolean(PhpPlugin.ANALYSIS_CACHE_KEY));
+  }
+
+}
@@ -19,23 +19,80 @@
  */
 package org.sonar.plugins.php.core;
 
+import com.google.common.base.CharMatcher;
+import com.google.common.io.Files;
 import org.sonar.api.batch.AbstractSourceImporter;
 import org.sonar.api.batch.Phase;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.resources.Project;
+import org.sonar.api.resources.Resource;
+import org.sonar.api.utils.SonarException;
+import org.sonar.php.PHPSourceCache;
 import org.sonar.plugins.php.api.Php;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
 /**
- * Simple source code importer for PHP projects.
+ * Simple source code importer for PHP projects. Main files are read from the source cache, which the next sensors
+ * read them from again, test files from the disk.
  */
 @Phase(name = Phase.Name.PRE)
 public class PhpSourceImporter extends AbstractSourceImporter {
 
+  private static final CharMatcher BOM = CharMatcher.anyOf("\uFEFF");
+
+  private final PHPSourceCache sourceCache;
+  private boolean importSources;
+
   /**
    * Instantiates a new php source importer.
    */
-  public PhpSourceImporter(Php php) {
+  public PhpSourceImporter(Php php, PHPSourceCache sourceCache) {
     super(php);
+    this.sourceCache = sourceCache;
+  }
+
+  @Override
+  protected boolean isEnabled(Project project) {
+    importSources = super.isEnabled(project);
+    return importSources;
   }
 
+  /**
+   * Same as {@link AbstractSourceImporter#parseDirs}, except for the way files are read.
+   */
+  @Override
+  protected void parseDirs(SensorContext context, List<File> files, List<File> sourceDirs, boolean unitTest, Charset sourcesEncoding) {
+    for (File file : files) {
+      Resource resource = createResource(file, sourceDirs, unitTest);
+      if (resource != null) {
+        context.index(resource);
+        if (importSources) {
+          try {
+            context.saveSource(resource, read(file, unitTest, sourcesEncoding));
+          } catch (Exception e) {
+            throw new SonarException("Unable to read and import the source file : '" + file.getAbsolutePath() + "' with the charset : '"
+              + sourcesEncoding.name() + "'.", e);
+          }
+        }
+      }
+    }
+  }
+
+  private String read(File file, boolean unitTest, Charset sourcesEncoding) throws IOException {
+    if (unitTest) {
+      return BOM.removeFrom(Files.toString(file, sourcesEncoding));
+    }
+    CharSequence contents = sourceCache.acquire(file);
+    try {
+      return BOM.removeFrom(contents);
+    } finally {
+      sourceCache.release(file);
+    }
+  }
   /**
    * {@inheritDoc}
    */
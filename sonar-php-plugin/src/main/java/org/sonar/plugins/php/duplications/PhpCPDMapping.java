@@ -19,26 +19,29 @@
  */
 package org.sonar.plugins.php.duplications;
 
+import com.sonar.sslr.api.GenericTokenType;
+import com.sonar.sslr.api.Token;
+import com.sonar.sslr.api.TokenType;
+import com.sonar.sslr.api.Trivia;
 import net.sourceforge.pmd.cpd.SourceCode;
 import net.sourceforge.pmd.cpd.TokenEntry;
 import net.sourceforge.pmd.cpd.Tokenizer;
 import net.sourceforge.pmd.cpd.Tokens;
-import org.apache.commons.io.IOUtils;
 import org.sonar.api.batch.AbstractCpdMapping;
 import org.sonar.api.resources.Language;
 import org.sonar.api.resources.Project;
 import org.sonar.api.scan.filesystem.ModuleFileSystem;
-import org.sonar.api.utils.SonarException;
-import org.sonar.duplications.token.Token;
-import org.sonar.duplications.token.TokenChunker;
-import org.sonar.duplications.token.TokenQueue;
+import org.sonar.php.PHPConfiguration;
+import org.sonar.php.PHPSourceCache;
+import org.sonar.php.api.PHPKeyword;
+import org.sonar.php.api.PHPPunctuator;
+import org.sonar.php.api.PHPTokenType;
+import org.sonar.php.lexer.PHPTagsChannel;
+import org.sonar.php.lexer.PHPTokenScanner;
+import org.sonar.php.lexer.PHPTokenVisitor;
 import org.sonar.plugins.php.api.Php;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.util.Iterator;
+import java.io.File;
 
 /**
  * Temporary PHP CPD engine mapping class, used until we can migrate to Sonar CPD Engine.
@@ -47,6 +50,7 @@ public class PhpCPDMapping extends AbstractCpdMapping {
 
   private Php php;
   private ModuleFileSystem fileSystem;
+  private PHPSourceCache sourceCache;
 
   /**
    * Creates a {@link PhpCPDMapping} object
@@ -54,9 +58,10 @@ public class PhpCPDMapping extends AbstractCpdMapping {
    * @param php
    * @param project
    */
-  public PhpCPDMapping(Php php, Project project, ModuleFileSystem fileSystem) {
+  public PhpCPDMapping(Php php, Project project, ModuleFileSystem fileSystem, PHPSourceCache sourceCache) {
     this.php = php;
     this.fileSystem = fileSystem;
+    this.sourceCache = sourceCache;
   }
 
   /**
@@ -79,15 +84,13 @@ public class PhpCPDMapping extends AbstractCpdMapping {
 
   class PHPCPDTokenizer implements Tokenizer {
 
-    private TokenChunker tokenChunker;
-    private static final String USE_KEYWORD = "use";
-    private static final String SEMI_COLON = ";";
+    private PHPTokenScanner scanner;
 
     /**
      * Creates a {@link {@link PHPCPDTokenizer}
      */
     public PHPCPDTokenizer() {
-      this.tokenChunker = PhpTokenProducer.build();
+      this.scanner = new PHPTokenScanner(new PHPConfiguration(fileSystem.sourceCharset()));
     }
 
     /**
@@ -95,37 +98,65 @@ public class PhpCPDMapping extends AbstractCpdMapping {
      */
     public final void tokenize(SourceCode source, Tokens cpdTokens) {
       String fileName = source.getFileName();
-
-      Reader reader = null;
+      File file = new File(fileName);
+      CharSequence contents = sourceCache.acquire(file);
       try {
-        reader = new InputStreamReader(new FileInputStream(fileName), fileSystem.sourceCharset());
-        TokenQueue queue = tokenChunker.chunk(reader);
-
-        Iterator<Token> iterator = queue.iterator();
-        // we currently use this hack to remove "use" directives
-        boolean useDirective = false;
-        while (iterator.hasNext()) {
-          Token token = (Token) iterator.next();
-          if (token.getValue().equalsIgnoreCase(USE_KEYWORD)) {
-            useDirective = true;
-          } else if (useDirective) {
-            // We do nothing as we want to ignore "use" directives
-            if (token.getValue().equalsIgnoreCase(SEMI_COLON)) {
-              useDirective = false;
-            }
-          } else {
-            cpdTokens.add(new TokenEntry(token.getValue(), fileName, token.getLine()));
-          }
-        }
-      } catch (FileNotFoundException e) {
-        throw new SonarException(e);
+        scanner.scan(contents, new CPDTokenCollector(fileName, cpdTokens));
       } finally {
-        IOUtils.closeQuietly(reader);
+        sourceCache.release(file);
       }
-
       cpdTokens.add(TokenEntry.getEOF());
     }
 
   }
 
+  private static class CPDTokenCollector implements PHPTokenVisitor {
+
+    private static final String NORMALIZED_CHARACTER_LITERAL = "$CHARS";
+    private static final String NORMALIZED_NUMERIC_LITERAL = "$NUMBER";
+
+    private final String fileName;
+    private final Tokens cpdTokens;
+    // we currently use this hack to remove "use" directives
+    private boolean useDirective = false;
+
+    CPDTokenCollector(String fileName, Tokens cpdTokens) {
+      this.fileName = fileName;
+      this.cpdTokens = cpdTokens;
+    }
+
+    public void visitTrivia(Trivia trivia) {
+      // comments are not part of duplications
+    }
+
+    public void visitToken(Token token) {
+      TokenType type = token.getType();
+      if (type == PHPKeyword.USE) {
+        useDirective = true;
+      } else if (useDirective) {
+        // We do nothing as we want to ignore "use" directives
+        if (type == PHPPunctuator.SEMICOLON) {
+          useDirective = false;
+        }
+      } else if (!isIgnored(type)) {
+        cpdTokens.add(new TokenEntry(normalizedValue(token), fileName, token.getLine()));
+      }
+    }
+
+    private static boolean isIgnored(TokenType type) {
+      return type == GenericTokenType.EOF || type == PHPTagsChannel.FILE_OPENING_TAG || type == PHPTagsChannel.INLINE_HTML;
+    }
+
+    private static String normalizedValue(Token token) {
+      TokenType type = token.getType();
+      if (type == PHPTokenType.STRING_LITERAL || type == PHPTokenType.HEREDOC) {
+        return NORMALIZED_CHARACTER_LITERAL;
+      } else if (type == PHPTokenType.NUMERIC_LITERAL) {
+        return NORMALIZED_NUMERIC_LITERAL;
+      }
+      return token.getValue();
+    }
+
+  }
+
 }
@@ -0,0 +1,159 @@
+/*
+ * SonarQube PHP Plugin
+ * Copyright (C) 2010 SonarSource and Akram Ben Aissi
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.php;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.measures.FileLinesContext;
+import org.sonar.php.PHPSourceCache;
+import org.sonar.php.api.PHPMetric;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class AnalysisCacheTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final PHPSourceCache sourceCache = new PHPSourceCache(Charsets.UTF_8, 0, true);
+  private File cacheFile;
+  private File sourceFile;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheFile = new File(temporaryFolder.getRoot(), "cache/php-analysis-cache.bin");
+    sourceFile = temporaryFolder.newFile("file.php");
+    Files.write("<?php echo 1;", sourceFile, Charsets.UTF_8);
+  }
+
+  @Test
+  public void unchanged_file() {
+    AnalysisCache cache = new AnalysisCache(cacheFile, "fingerprint", 1024, sourceCache);
+    cache.load();
+    assertThat(cache.get(sourceFile)).isNull();
+    cache.put(sourceFile, analysis());
+    cache.save();
+
+    cache = new AnalysisCache(cacheFile, "fingerprint", 1024, sourceCache);
+    cache.load();
+    FileAnalysis analysis = cache.get(sourceFile);
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(cache.getMisses()).isEqualTo(0);
+
+    assertThat(analysis.getMeasure(PHPMetric.LINES)).isEqualTo(1.0);
+    assertThat(analysis.getMeasure(PHPMetric.COMPLEXITY)).isEqualTo(3.0);
+    assertThat(analysis.complexityInClasses).isEqualTo(2.0);
+    assertThat(analysis.functionComplexities).containsExactly(1.0, 2.0);
+    assertThat(analysis.issues).hasSize(2);
+    assertThat(analysis.issues.get(0).ruleKey).isEqualTo("S1");
+    assertThat(analysis.issues.get(0).line).isEqualTo(1);
+    assertThat(analysis.issues.get(1).line).isNull();
+    assertThat(analysis.issues.get(1).message).isEqualTo("message");
+
+    FileLinesContext fileLinesContext = mock(FileLinesContext.class);
+    analysis.lines.saveTo(fileLinesContext);
+    verify(fileLinesContext).setIntValue("ncloc_data", 1, 1);
+    verify(fileLinesContext).save();
+  }
+
+  @Test
+  public void changed_file() throws Exception {
+    AnalysisCache cache = new AnalysisCache(cacheFile, "fingerprint", 1024, sourceCache);
+    cache.put(sourceFile, analysis());
+    cache.save();
+
+    Files.write("<?php echo 2;", sourceFile, Charsets.UTF_8);
+    cache = new AnalysisCache(cacheFile, "fingerprint", 1024, new PHPSourceCache(Charsets.UTF_8, 0, true));
+    cache.load();
+    assertThat(cache.get(sourceFile)).isNull();
+    assertThat(cache.getMisses()).isEqualTo(1);
+  }
+
+  @Test
+  public void contents_read_from_source_cache() {
+    PHPSourceCache keptSources = new PHPSourceCache(Charsets.UTF_8, 1024, true);
+    AnalysisCache cache = new AnalysisCache(cacheFile, "fingerprint", 1024, keptSources);
+    assertThat(cache.get(sourceFile)).isNull();
+
+    keptSources.acquire(sourceFile);
+    keptSources.release(sourceFile);
+    assertThat(keptSources.getReads()).isEqualTo(1);
+  }
+
+  @Test
+  public void dropped_contents_not_read_again() {
+    sourceCache.acquire(sourceFile);
+    sourceCache.release(sourceFile);
+    AnalysisCache cache = new AnalysisCache(cacheFile, "fingerprint", 1024, sourceCache);
+    assertThat(cache.get(sourceFile)).isNull();
+    assertThat(sourceCache.getReads()).isEqualTo(1);
+  }
+
+  @Test
+  public void other_fingerprint() {
+    AnalysisCache cache = new AnalysisCache(cacheFile, "fingerprint", 1024, sourceCache);
+    cache.put(sourceFile, analysis());
+    cache.save();
+
+    cache = new AnalysisCache(cacheFile, "other fingerprint", 1024, sourceCache);
+    cache.load();
+    assertThat(cache.get(sourceFile)).isNull();
+  }
+
+  @Test
+  public void eviction() throws Exception {
+    File otherFile = temporaryFolder.newFile("other.php");
+    AnalysisCache cache = new AnalysisCache(cacheFile, "fingerprint", 1024, sourceCache);
+    cache.put(otherFile, analysis());
+    cache.save();
+
+    cache = new AnalysisCache(cacheFile, "fingerprint", 200, sourceCache);
+    cache.load();
+    cache.put(sourceFile, analysis());
+    cache.save();
+
+    cache = new AnalysisCache(cacheFile, "fingerprint", 1024, sourceCache);
+    cache.load();
+    assertThat(cache.get(sourceFile)).isNotNull();
+    assertThat(cache.get(otherFile)).isNull();
+  }
+
+  private static FileAnalysis analysis() {
+    FileAnalysis analysis = new FileAnalysis();
+    analysis.setMeasure(PHPMetric.LINES, 1);
+    analysis.setMeasure(PHPMetric.COMPLEXITY, 3);
+    analysis.complexityInClasses = 2;
+    analysis.functionComplexities.add(1.0);
+    analysis.functionComplexities.add(2.0);
+    analysis.issues.add(new FileAnalysis.Issue("php", "S1", 1, "message"));
+    analysis.issues.add(new FileAnalysis.Issue("php", "S2", null, "message"));
+    analysis.lines.setIntValue("ncloc_data", 1, 1);
+    return analysis;
+  }
+
+}
@@ -21,41 +21,67 @@ package org.sonar.plugins.php;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.issue.Issuable;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.config.Settings;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.FileLinesContext;
 import org.sonar.api.measures.FileLinesContextFactory;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.Metric;
+import org.sonar.api.profiles.AnnotationProfileParser;
 import org.sonar.api.profiles.RulesProfile;
 import org.sonar.api.resources.File;
 import org.sonar.api.resources.Project;
 import org.sonar.api.resources.ProjectFileSystem;
 import org.sonar.api.resources.Resource;
+import org.sonar.api.rules.ActiveRule;
 import org.sonar.api.scan.filesystem.FileQuery;
 import org.sonar.api.scan.filesystem.ModuleFileSystem;
+import org.sonar.api.utils.ValidationMessages;
+import org.sonar.php.PHPSourceCache;
+import org.sonar.php.checks.CheckList;
+
+import java.util.Collections;
+import java.util.List;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.containsString;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class PHPSquidSensorTest {
 
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   private Project project;
   private final ModuleFileSystem fileSystem = mock(ModuleFileSystem.class);
+  private final Settings settings = new Settings();
+  private final FileLinesContext fileLinesContext = mock(FileLinesContext.class);
+  private final FileLinesContextFactory fileLinesContextFactory = mock(FileLinesContextFactory.class);
   private PHPSquidSensor sensor;
 
   @Before
   public void setUp() {
-    FileLinesContextFactory fileLinesContextFactory = mock(FileLinesContextFactory.class);
-    FileLinesContext fileLinesContext = mock(FileLinesContext.class);
     when(fileLinesContextFactory.createFor(any(Resource.class))).thenReturn(fileLinesContext);
 
     ProjectFileSystem pfs = mock(ProjectFileSystem.class);
@@ -64,7 +90,8 @@ public class PHPSquidSensorTest {
     project = mock(Project.class);
     when(project.getFileSystem()).thenReturn(pfs);
 
-    sensor = spy(new PHPSquidSensor(mock(RulesProfile.class), mock(ResourcePerspectives.class), fileSystem, fileLinesContextFactory));
+    sensor = spy(new PHPSquidSensor(mock(RulesProfile.class), mock(ResourcePerspectives.class), fileSystem, fileLinesContextFactory, settings,
+      new PHPSourceCache(Charsets.UTF_8, 0, true)));
   }
 
   @Test
@@ -95,5 +122,133 @@ public class PHPSquidSensorTest {
     verify(context).saveMeasure(Mockito.any(File.class), Mockito.eq(CoreMetrics.COMPLEXITY_IN_CLASSES), Mockito.eq(7.0));
     verify(context).saveMeasure(Mockito.any(File.class), Mockito.eq(CoreMetrics.COMMENT_LINES), Mockito.eq(7.0));
     verify(context).saveMeasure(Mockito.any(File.class), Mockito.eq(CoreMetrics.FUNCTIONS), Mockito.eq(3.0));
+    verify(fileLinesContext).save();
+  }
+
+  @Test
+  public void analyse_in_parallel() {
+    List<String> results = analyseWithSonarWay(1);
+
+    assertThat(results.toString(), containsString("Math2.php issue"));
+    assertThat(results.toString(), containsString("PHPSquidSensor.php ncloc=29.0"));
+    assertThat(analyseWithSonarWay(3), is(results));
+  }
+
+  /**
+   * Returns the measures and the issues saved by an analysis of the PHP files of the test resources with the rules of
+   * the Sonar way profile, sorted.
+   */
+  private List<String> analyseWithSonarWay(int threads) {
+    settings.setProperty(PhpPlugin.ANALYSIS_THREADS_KEY, threads);
+    when(fileSystem.sourceCharset()).thenReturn(Charsets.UTF_8);
+    when(fileSystem.files(any(FileQuery.class))).thenReturn(ImmutableList.of(
+      new java.io.File("src/test/resources/Mail.php"),
+      new java.io.File("src/test/resources/Math2.php"),
+      new java.io.File("src/test/resources/Math3.php"),
+      new java.io.File("src/test/resources/Math4.php"),
+      new java.io.File("src/test/resources/PHPSquidSensor.php")));
+
+    Recorder recorder = new Recorder();
+    ResourcePerspectives perspectives = mock(ResourcePerspectives.class);
+    Issuable issuable = mock(Issuable.class);
+    when(issuable.newIssueBuilder()).thenReturn(mock(Issuable.IssueBuilder.class, recorder));
+    when(perspectives.as(eq(Issuable.class), any(Resource.class))).thenAnswer(recorder.resourceOf(issuable));
+    RulesProfile profile = new PHPProfile(new AnnotationProfileParser(PHPProfileTest.ruleFinder())).createProfile(ValidationMessages.create());
+    PHPSquidSensor sonarWaySensor = spy(new PHPSquidSensor(profile, perspectives, fileSystem, fileLinesContextFactory, settings,
+      new PHPSourceCache(Charsets.UTF_8, 0, true)));
+    doAnswer(new Answer<File>() {
+      public File answer(InvocationOnMock invocation) {
+        return new File(((java.io.File) invocation.getArguments()[0]).getName());
+      }
+    }).when(sonarWaySensor).getSonarResource(any(java.io.File.class));
+    sonarWaySensor.analyse(project, mock(SensorContext.class, recorder));
+
+    Collections.sort(recorder.results);
+    return recorder.results;
+  }
+
+  /**
+   * Records the measures saved in the sensor context, and the issues built by issue builders.
+   */
+  private static class Recorder implements Answer<Object> {
+    private final List<String> results = Lists.newArrayList();
+    private final StringBuilder issue = new StringBuilder();
+    private String resource;
+
+    Answer<Issuable> resourceOf(final Issuable issuable) {
+      return new Answer<Issuable>() {
+        public Issuable answer(InvocationOnMock invocation) {
+          resource = ((Resource) invocation.getArguments()[1]).getKey();
+          return issuable;
+        }
+      };
+    }
+
+    public Object answer(InvocationOnMock invocation) throws Throwable {
+      String method = invocation.getMethod().getName();
+      Object[] arguments = invocation.getArguments();
+      if (invocation.getMock() instanceof Issuable.IssueBuilder) {
+        if ("build".equals(method)) {
+          results.add(resource + " issue" + issue);
+          issue.setLength(0);
+          return mock(Issue.class);
+        }
+        issue.append(' ').append(method).append('=').append(arguments[0]);
+        return invocation.getMock();
+      }
+      if ("saveMeasure".equals(method) && arguments.length == 3) {
+        results.add(((Resource) arguments[0]).getKey() + " " + ((Metric) arguments[1]).getKey() + "=" + arguments[2]);
+      } else if ("saveMeasure".equals(method) && arguments.length == 2 && arguments[0] instanceof Resource) {
+        Measure measure = (Measure) arguments[1];
+        results.add(((Resource) arguments[0]).getKey() + " " + measure.getMetricKey() + "=" + measure.getData());
+      }
+      return Mockito.RETURNS_DEFAULTS.answer(invocation);
+    }
+  }
+
+  @Test
+  public void analyse_with_cache() throws Exception {
+    settings.setProperty(PhpPlugin.ANALYSIS_CACHE_KEY, true);
+    when(fileSystem.workingDir()).thenReturn(temporaryFolder.newFolder());
+    doReturn(new File("file")).when(sensor).getSonarResource(any(java.io.File.class));
+    when(fileSystem.sourceCharset()).thenReturn(Charsets.UTF_8);
+    when(fileSystem.files(any(FileQuery.class))).thenReturn(ImmutableList.of(new java.io.File("src/test/resources/PHPSquidSensor.php")));
+
+    sensor.analyse(project, mock(SensorContext.class));
+
+    // the file is only read to look it up in the cache, not to be parsed again
+    PHPSourceCache sourceCache = new PHPSourceCache(Charsets.UTF_8, 0, true);
+    PHPSquidSensor nextSensor = spy(new PHPSquidSensor(mock(RulesProfile.class), mock(ResourcePerspectives.class), fileSystem, fileLinesContextFactory,
+      settings, sourceCache));
+    doReturn(new File("file")).when(nextSensor).getSonarResource(any(java.io.File.class));
+    SensorContext context = mock(SensorContext.class);
+    nextSensor.analyse(project, context);
+    assertThat(sourceCache.getReads(), is(1));
+
+    verify(context).saveMeasure(Mockito.any(File.class), Mockito.eq(CoreMetrics.LINES), Mockito.eq(51.0));
+    verify(context).saveMeasure(Mockito.any(File.class), Mockito.eq(CoreMetrics.NCLOC), Mockito.eq(29.0));
+    verify(context).saveMeasure(Mockito.any(File.class), Mockito.eq(CoreMetrics.COMPLEXITY_IN_CLASSES), Mockito.eq(7.0));
+    verify(fileLinesContext, times(2)).save();
+  }
+
+  @Test
+  public void fingerprint_of_active_rules() {
+    when(fileSystem.sourceCharset()).thenReturn(Charsets.UTF_8);
+    org.sonar.api.rules.Rule rule = org.sonar.api.rules.Rule.create(CheckList.REPOSITORY_KEY, "S1");
+    rule.createParameter("max");
+    RulesProfile profile = RulesProfile.create();
+    ActiveRule activeRule = profile.activateRule(rule, null);
+    activeRule.setParameter("max", "10");
+    String fingerprint = sensorWith(profile).fingerprint();
+
+    assertThat(fingerprint.startsWith(PhpPlugin.class.getPackage().getImplementationVersion() + " "), is(true));
+    assertThat(sensorWith(profile).fingerprint(), is(fingerprint));
+    activeRule.setParameter("max", "20");
+    assertThat(sensorWith(profile).fingerprint().equals(fingerprint), is(false));
+  }
+
+  private PHPSquidSensor sensorWith(RulesProfile profile) {
+    return new PHPSquidSensor(profile, mock(ResourcePerspectives.class), fileSystem, mock(FileLinesContextFactory.class), settings,
+      new PHPSourceCache(Charsets.UTF_8, 0, true));
   }
 }
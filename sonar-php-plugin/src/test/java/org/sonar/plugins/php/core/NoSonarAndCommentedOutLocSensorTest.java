@@ -19,7 +19,9 @@
  */
 package org.sonar.plugins.php.core;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import org.junit.Before;
 import org.junit.Test;
 import org.sonar.api.batch.SensorContext;
@@ -29,11 +31,13 @@ import org.sonar.api.resources.Project;
 import org.sonar.api.resources.Resource;
 import org.sonar.api.scan.filesystem.FileQuery;
 import org.sonar.api.scan.filesystem.ModuleFileSystem;
+import org.sonar.php.PHPSourceCache;
 import org.sonar.squidbridge.measures.Metric;
 import org.sonar.squidbridge.text.Source;
 import org.sonar.test.TestUtils;
 
 import java.io.File;
+import java.io.IOException;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -60,7 +64,7 @@ public class NoSonarAndCommentedOutLocSensorTest {
 
     noSonarFilter = new NoSonarFilter();
     context = mock(SensorContext.class);
-    sensor = spy(new NoSonarAndCommentedOutLocSensor(fs, noSonarFilter));
+    sensor = spy(new NoSonarAndCommentedOutLocSensor(fs, noSonarFilter, new PHPSourceCache(Charsets.UTF_8, 0)));
   }
 
   @Test
@@ -93,7 +97,7 @@ public class NoSonarAndCommentedOutLocSensorTest {
     when(fs.sourceDirs()).thenReturn(ImmutableList.of(new File("fake/directory/")));
     when(fs.files(any(FileQuery.class))).thenReturn(ImmutableList.of(fakeFile, new File("fake")));
 
-    NoSonarAndCommentedOutLocSensor localSensor = new NoSonarAndCommentedOutLocSensor(localFs, noSonarFilter);
+    NoSonarAndCommentedOutLocSensor localSensor = new NoSonarAndCommentedOutLocSensor(localFs, noSonarFilter, new PHPSourceCache(Charsets.UTF_8, 0));
     localSensor.analyse(project, context);
     verify(context, never()).saveMeasure(any(Resource.class), any(org.sonar.api.measures.Metric.class), any(Double.class));
 
@@ -102,7 +106,7 @@ public class NoSonarAndCommentedOutLocSensorTest {
   @Test
   public void testAnalyseSourceCode() {
     File file = new File(this.getClass().getResource("/Mail.php").getPath());
-    Source source = NoSonarAndCommentedOutLocSensor.analyseSourceCode(file);
+    Source source = analyseSourceCode(file);
     assertEquals(1, source.getNoSonarTagLines().size());
     assertEquals(17, (int) source.getNoSonarTagLines().iterator().next());
 
@@ -112,7 +116,7 @@ public class NoSonarAndCommentedOutLocSensorTest {
   @Test
   public void testAnalyseSourceCodeWithRegions() {
     File file = new File(this.getClass().getResource("/Math2.php").getPath());
-    Source source = NoSonarAndCommentedOutLocSensor.analyseSourceCode(file);
+    Source source = analyseSourceCode(file);
     assertEquals(1, source.getNoSonarTagLines().size());
     assertEquals(126, (int) source.getNoSonarTagLines().iterator().next());
 
@@ -122,7 +126,7 @@ public class NoSonarAndCommentedOutLocSensorTest {
   @Test
   public void testAnalyseSourceCodeWithNoNoSonar() {
     File file = new File(this.getClass().getResource("/Math3.php").getPath());
-    Source source = NoSonarAndCommentedOutLocSensor.analyseSourceCode(file);
+    Source source = analyseSourceCode(file);
     assertEquals(0, source.getNoSonarTagLines().size());
     assertEquals(5, source.getMeasure(Metric.COMMENTED_OUT_CODE_LINES));
   }
@@ -131,10 +135,18 @@ public class NoSonarAndCommentedOutLocSensorTest {
   @Test
   public void testAnalyseSourceCodeWithMultiLineString() {
     File file = new File(this.getClass().getResource("/Math4.php").getPath());
-    Source source = NoSonarAndCommentedOutLocSensor.analyseSourceCode(file);
+    Source source = analyseSourceCode(file);
     assertEquals(1, source.getNoSonarTagLines().size());
     assertEquals(91, (int) source.getNoSonarTagLines().iterator().next());
 
     assertEquals(5, source.getMeasure(Metric.COMMENTED_OUT_CODE_LINES));
   }
+
+  private static Source analyseSourceCode(File file) {
+    try {
+      return NoSonarAndCommentedOutLocSensor.analyseSourceCode(file, Files.toString(file, Charsets.UTF_8));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
 }
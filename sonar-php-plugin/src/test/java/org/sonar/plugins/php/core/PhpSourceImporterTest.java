@@ -19,14 +19,31 @@
  */
 package org.sonar.plugins.php.core;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.apache.commons.configuration.Configuration;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.SensorContext;
 import org.sonar.api.resources.Language;
+import org.sonar.api.resources.Project;
+import org.sonar.api.resources.Resource;
+import org.sonar.php.PHPSourceCache;
 import org.sonar.plugins.php.api.Php;
 
+import java.io.File;
+
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Tests the basic functionality of the PhpSourceImporter.
@@ -36,13 +53,18 @@ import static org.junit.Assert.assertThat;
  */
 public class PhpSourceImporterTest {
 
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   Php php;
+  private PHPSourceCache sourceCache;
   private PhpSourceImporter importer;
 
   @Before
   public void setUp() {
     php = new Php();
-    importer = new PhpSourceImporter(php);
+    sourceCache = new PHPSourceCache(Charsets.UTF_8, 100);
+    importer = new PhpSourceImporter(php, sourceCache);
   }
 
   @Test
@@ -50,6 +72,27 @@ public class PhpSourceImporterTest {
     assertThat(importer.getLanguage(), is((Language) php));
   }
 
+  @Test
+  public void sources_are_read_from_cache() throws Exception {
+    Project project = mock(Project.class);
+    Configuration configuration = mock(Configuration.class);
+    when(project.getLanguage()).thenReturn(php);
+    when(project.getConfiguration()).thenReturn(configuration);
+    when(configuration.getBoolean("sonar.importSources", true)).thenReturn(true);
+    File dir = temporaryFolder.newFolder("src");
+    File file = new File(dir, "a.php");
+    Files.write("\uFEFF<?php echo '\u00e9';", file, Charsets.UTF_8);
+    SensorContext context = mock(SensorContext.class);
+
+    assertThat(importer.shouldExecuteOnProject(project), is(true));
+    importer.parseDirs(context, ImmutableList.of(file), ImmutableList.of(dir), false, Charsets.UTF_8);
+
+    verify(context).index(any(Resource.class));
+    verify(context).saveSource(any(Resource.class), eq("<?php echo '\u00e9';"));
+    sourceCache.acquire(file);
+    assertThat(sourceCache.getReads(), is(1));
+  }
+
   @Test
   public void testToString() throws Exception {
     assertNotNull(importer.toString());
@@ -20,18 +20,25 @@
 package org.sonar.plugins.php.duplications;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
 import net.sourceforge.pmd.cpd.SourceCode;
+import net.sourceforge.pmd.cpd.TokenEntry;
 import net.sourceforge.pmd.cpd.Tokenizer;
 import net.sourceforge.pmd.cpd.Tokens;
 import org.junit.Before;
 import org.junit.Test;
 import org.sonar.api.resources.Project;
 import org.sonar.api.scan.filesystem.ModuleFileSystem;
+import org.sonar.php.PHPSourceCache;
 import org.sonar.test.TestUtils;
 
 import java.nio.charset.Charset;
+import java.util.List;
 
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -46,7 +53,7 @@ public class PHPCPDMappingTest {
     when(fs.sourceCharset()).thenReturn(Charsets.UTF_8);
     Project project = mock(Project.class);
 
-    PhpCPDMapping phpcpdMapping = new PhpCPDMapping(null, project, fs);
+    PhpCPDMapping phpcpdMapping = new PhpCPDMapping(null, project, fs, new PHPSourceCache(Charsets.UTF_8, 0));
     tokenizer = phpcpdMapping.getTokenizer();
   }
 
@@ -57,7 +64,22 @@ public class PHPCPDMappingTest {
     Tokens tokens = new Tokens();
     tokenizer.tokenize(source, tokens);
 
-    assertThat(tokens.size(), is(33));
+    assertThat(tokens.size(), is(28));
+  }
+
+  @Test
+  public void literals_are_normalized() throws Exception {
+    SourceCode source = new SourceCode(new SourceCode.FileCodeLoader(
+      TestUtils.getResource("org/sonar/plugins/php/duplications/SmallFile.php"), Charset.defaultCharset().displayName()));
+    Tokens tokens = new Tokens();
+    tokenizer.tokenize(source, tokens);
+
+    List<String> values = Lists.newArrayList();
+    for (TokenEntry token : tokens.getTokens()) {
+      values.add(token.getValue());
+    }
+    assertThat(values, hasItems("$CHARS", "$NUMBER"));
+    assertThat(values, not(hasItem("1000")));
   }
 
 }
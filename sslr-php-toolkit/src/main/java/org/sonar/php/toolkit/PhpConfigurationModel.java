@@ -19,27 +19,113 @@
  */
 package org.sonar.php.toolkit;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.sonar.sslr.api.AstNode;
+import com.sonar.sslr.api.Grammar;
+import com.sonar.sslr.api.Token;
 import com.sonar.sslr.impl.Parser;
 import org.sonar.colorizer.Tokenizer;
 import org.sonar.php.PHPConfiguration;
+import org.sonar.php.parser.InstrumentedParser;
 import org.sonar.php.parser.PHPParser;
 import org.sonar.sslr.toolkit.AbstractConfigurationModel;
 import org.sonar.sslr.toolkit.ConfigurationProperty;
+import org.sonar.sslr.toolkit.ValidationCallback;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 
 public class PhpConfigurationModel extends AbstractConfigurationModel {
 
+  private static final ValidationCallback FILE_VALIDATOR = new ValidationCallback() {
+    @Override
+    public String validate(String newValueCandidate) {
+      if (newValueCandidate.isEmpty()) {
+        return "";
+      }
+      File directory = new File(newValueCandidate).getAbsoluteFile().getParentFile();
+      return directory != null && directory.isDirectory() ? "" : "The directory of the file must exist";
+    }
+  };
+
+  /**
+   * Writes the statistics of an {@link InstrumentedParser} to a file after each parse.
+   */
+  private static class StatisticsWritingParser extends Parser<Grammar> {
+    private final InstrumentedParser parser;
+    private final File statisticsFile;
+
+    StatisticsWritingParser(InstrumentedParser parser, File statisticsFile) {
+      super(parser.getGrammar());
+      setRootRule(parser.getGrammar().getRootRule());
+      this.parser = parser;
+      this.statisticsFile = statisticsFile;
+    }
+
+    @Override
+    public AstNode parse(File file) {
+      parser.reset();
+      try {
+        return parser.parse(file);
+      } finally {
+        writeStatistics();
+      }
+    }
+
+    @Override
+    public AstNode parse(String source) {
+      parser.reset();
+      try {
+        return parser.parse(source);
+      } finally {
+        writeStatistics();
+      }
+    }
+
+    @Override
+    public AstNode parse(List<Token> tokens) {
+      parser.reset();
+      try {
+        return parser.parse(tokens);
+      } finally {
+        writeStatistics();
+      }
+    }
+
+    private void writeStatistics() {
+      try {
+        Files.write(parser.toJson(), statisticsFile, Charsets.UTF_8);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to write " + statisticsFile.getPath(), e);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  final ConfigurationProperty instrumentationProperty = new ConfigurationProperty("Parser statistics file",
+    "File to which to write, after each parse, the parse time and what the parser did with each rule, as JSON. "
+      + "Leave empty to parse without recording statistics.",
+    "",
+    FILE_VALIDATOR);
+
   @Override
   public List<ConfigurationProperty> getProperties() {
-    return Collections.emptyList();
+    return ImmutableList.of(instrumentationProperty);
   }
 
   @Override
   public Parser doGetParser() {
-    return PHPParser.create(new PHPConfiguration(Charsets.UTF_8));
+    PHPConfiguration conf = new PHPConfiguration(Charsets.UTF_8);
+    String statisticsFile = instrumentationProperty.getValue();
+    if (!statisticsFile.isEmpty()) {
+      return new StatisticsWritingParser(PHPParser.createInstrumented(conf), new File(statisticsFile));
+    }
+    return PHPParser.create(conf);
   }
 
   @Override
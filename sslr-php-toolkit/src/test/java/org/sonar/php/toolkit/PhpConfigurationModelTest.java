@@ -19,16 +19,42 @@
  */
 package org.sonar.php.toolkit;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
 
 import static org.fest.assertions.Assertions.assertThat;
 
 public class PhpConfigurationModelTest {
 
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Test
   public void getProperties() {
     PhpConfigurationModel model = new PhpConfigurationModel();
-    assertThat(model.getProperties()).isEmpty();
+    assertThat(model.getProperties()).containsOnly(model.instrumentationProperty);
+    assertThat(model.instrumentationProperty.getValue()).isEmpty();
+    assertThat(model.instrumentationProperty.validate("")).isEmpty();
+    assertThat(model.instrumentationProperty.validate(new File(temporaryFolder.getRoot(), "statistics.json").getPath())).isEmpty();
+    assertThat(model.instrumentationProperty.validate(new File(temporaryFolder.getRoot(), "missing/statistics.json").getPath())).isNotEmpty();
+  }
+
+  @Test
+  public void getParser() throws Exception {
+    PhpConfigurationModel model = new PhpConfigurationModel();
+    assertThat(model.doGetParser().parse("<?php $a = 1;").getTokens()).hasSize(6);
+
+    File statisticsFile = new File(temporaryFolder.getRoot(), "statistics.json");
+    model.instrumentationProperty.setValue(statisticsFile.getPath());
+    assertThat(model.doGetParser().parse("<?php $a = 1;").getTokens()).hasSize(6);
+    assertThat(Files.toString(statisticsFile, Charsets.UTF_8))
+      .startsWith("{\n  \"files\": 1,")
+      .contains("{\"rule\": \"COMPILATION_UNIT\", \"calls\": 0, \"invocations\": 1, \"matches\": 1, ");
   }
 
   @Test